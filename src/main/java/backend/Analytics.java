@@ -1,71 +1,566 @@
 package backend;
 
+import backend.storage.Demographics;
+import backend.storage.LongList;
+import backend.storage.PartitionSize;
+import backend.storage.SalesJournal;
+import backend.storage.SalesPartition;
+import backend.storage.SalesStore;
+import backend.storage.SequencedBuffer;
+import backend.storage.Snapshots;
+import backend.structures.SaleLine;
 import backend.structures.Transaction;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONString;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import sharedResources.exceptions.MissingDataException;
 import sharedResources.exceptions.NoSuchCustomerException;
 import sharedResources.productCatalog.Product;
+import sharedResources.productCatalog.ProductCatalog;
 import sharedResources.structures.Customer;
 import sharedResources.structures.CustomerRegister;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 /**
  * Class for keeping track of sales.
  * Aggregates the sales data for the marketing and sales departments
+ *
+ * Sales can be recorded from many threads at once. A recorded sale is written to the journal and put into a lock free
+ * buffer by its journal sequence number. The buffered sales are applied to the aggregates under a write lock, either
+ * before a query or once enough of them have piled up. Queries then read under a read lock, so they always see an
+ * unbroken prefix of the journal.
+ *
+ * The journal holds the full history of sales, only the aggregates are kept in memory. Listing sales reads them back
+ * from the journal.
  */
 class Analytics { //implements Serializable
 
-    private static Analytics instance;
+    // Number of buffered sales after which a recording thread applies them
+    private static final int DRAIN_THRESHOLD = 1024;
+    // Number of live feed events that may wait to be sent
+    private static final int FEED_CAPACITY = 4096;
+    // Milliseconds between applying the buffered sales while dashboards follow the live feed
+    private static final long FEED_DRAIN_INTERVAL = 200;
+    // Seconds between heartbeats on the live feed
+    private static final long FEED_HEARTBEAT_INTERVAL = 5;
+    // Seconds the timestamp of a sale may be ahead of the clock of the server
+    private static final long MAX_CLOCK_SKEW = 5 * 60;
+    // Timestamps from this on are taken to be in milliseconds, in seconds it would be the year 5138
+    private static final long MILLISECONDS = 100_000_000_000L;
+    // Version of the snapshot contents, bump when changing writeSnapshot
+    private static final int SNAPSHOT_FORMAT = 7;
 
-    private final ArrayList<Transaction> sales;
+    private final ReentrantReadWriteLock lock;
+    private final SequencedBuffer<Transaction> pending;
+
+    private final SalesStore store;
+    // HashMap<timestamp / (60*60*24) [days since epoch], counts by barcode>, kept up to date as sales are added
+    private final HashMap<Long, IntLongCounter> salesByDate;
+    // HashMap<customer number, sequence numbers of the sales>
+    private final HashMap<Integer, LongList> salesByCustomer;
+    private final SalesJournal journal;
+    private final Snapshots snapshots;
+    private final QueryExecutor executor;
+    private final QueryCache cache;
+    private final LiveMetrics metrics;
+    private final SalesFeed feed;
     private final CustomerRegister customers;
+    // Customers looked up while recording their sales, so reports don't look them up again
+    private final ConcurrentHashMap<Integer, Customer> knownCustomers;
+
+    // Sequence number of the last applied sale
+    private long appliedSequence;
+    // Sequence number of the last sale in the latest snapshot
+    private long snapshotSequence;
+    // Runs the snapshots and keeps the live feed moving
+    private final ScheduledExecutorService scheduler;
 
     private Analytics () {
-        this.sales = new ArrayList<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.store = new SalesStore(PartitionSize.DAY);
+        this.salesByDate = new HashMap<>();
+        this.salesByCustomer = new HashMap<>();
+        this.journal = new SalesJournal(Settings.journalDirectory(), Settings.journalSegmentSize(), Settings.journalSyncInterval());
+        this.snapshots = new Snapshots(Settings.snapshotDirectory(), SNAPSHOT_FORMAT, 2);
+        this.executor = new QueryExecutor(Settings.queryParallelism(), Settings.queryParallelThreshold());
+        this.cache = new QueryCache(Settings.queryCacheSize());
+        this.metrics = new LiveMetrics(Settings.metricsWindow());
+        this.feed = new SalesFeed(FEED_CAPACITY);
         this.customers = CustomerRegister.getInstance();
+        this.knownCustomers = new ConcurrentHashMap<>();
+
+        // Restore the latest snapshot, then replay the sales journaled after it
+        try {
+            this.snapshotSequence = this.snapshots.loadLatest(this::readSnapshot);
+            this.appliedSequence = this.snapshotSequence;
+            System.out.println("Restored sales up to " + this.snapshotSequence + " from snapshot");
+            long count = this.journal.replay(this.snapshotSequence, (long sequence, byte[] payload) -> this.add(Transaction
+                    .fromBytes(payload)
+                    .setSequence(sequence)));
+            this.store.settle();
+            System.out.println("Replayed " + count + " sales from the journal");
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed restoring the sales data", ex);
+        }
+        this.pending = new SequencedBuffer<>(DRAIN_THRESHOLD * 8, this.journal.getNextSequence());
+
+        // Two threads, so the feed keeps moving while a snapshot is written
+        this.scheduler = Executors.newScheduledThreadPool(2, (Runnable runnable) -> {
+            Thread thread = new Thread(runnable, "analytics-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Sales are applied in batches, while dashboards are following often enough to look live
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            if (this.feed.isLive()) this.drain();
+        }, FEED_DRAIN_INTERVAL, FEED_DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleAtFixedRate(this.feed::heartbeat, FEED_HEARTBEAT_INTERVAL, FEED_HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+        long interval = Settings.snapshotInterval();
+        if (interval > 0) this.scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                this.snapshot();
+            } catch (IOException ex) {
+                System.out.println("Failed writing analytics snapshot: " + ex.getMessage());
+            }
+        }, interval, interval, TimeUnit.MINUTES);
+    }
+
+    private static class Holder {
+        private static final Analytics INSTANCE = new Analytics();
     }
 
     /**
-     * Get the analytics singleton
+     * Get the analytics singleton, created on first use
      *
      * @return The analytics instance
      */
     static Analytics getInstance () {
-        if (instance == null) instance = new Analytics();
-        return instance;
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Takes a final snapshot, then syncs and closes the sales journal. No sales can be recorded afterwards
+     *
+     * @throws IOException Writing the snapshot or closing the journal failed
+     */
+    void close () throws IOException {
+        this.scheduler.shutdown();
+        this.executor.close();
+        this.feed.close();
+        try {
+            this.snapshot();
+        } finally {
+            this.journal.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the aggregates applied so far, unless nothing has changed since the latest one.
+     * The aggregates are copied under the read lock and written out after releasing it, so sales keep being applied
+     * and queries keep running while the file is written. The sales themselves stay in the journal, which is synced
+     * first so the snapshot never covers sales that could still be lost in a crash.
+     *
+     * @throws IOException Syncing the journal or writing the snapshot failed
+     */
+    synchronized void snapshot () throws IOException {
+        this.drain();
+        long sequence;
+        SalesStore store;
+        HashMap<Long, IntLongCounter> salesByDate = new HashMap<>();
+        HashMap<Integer, LongList> salesByCustomer = new HashMap<>();
+        this.lock
+                .readLock()
+                .lock();
+        try {
+            sequence = this.appliedSequence;
+            if (sequence == this.snapshotSequence) return;
+            store = new SalesStore(this.store);
+            this.salesByDate.forEach((Long day, IntLongCounter counts) -> salesByDate.put(day, new IntLongCounter(counts)));
+            this.salesByCustomer.forEach((Integer customer, LongList sequences) -> salesByCustomer.put(customer, new LongList(sequences)));
+        } finally {
+            this.lock
+                    .readLock()
+                    .unlock();
+        }
+        // Applied sales are written to the journal, but may not be on the disk yet
+        this.journal.sync();
+        this.snapshots.write(sequence, (DataOutputStream out) -> Analytics.writeSnapshot(out, store, salesByDate, salesByCustomer));
+        this.snapshotSequence = sequence;
+        System.out.println("Wrote analytics snapshot up to sale " + sequence);
+    }
+
+    /**
+     * Writes a copy of the aggregates
+     *
+     * @param out             Target to write to
+     * @param store           The sales store
+     * @param salesByDate     Counts by barcode mapped by day
+     * @param salesByCustomer Sequence numbers of the sales mapped by customer
+     * @throws IOException Writing failed
+     */
+    private static void writeSnapshot (DataOutputStream out, SalesStore store, HashMap<Long, IntLongCounter> salesByDate, HashMap<Integer, LongList> salesByCustomer) throws IOException {
+        store.writeTo(out);
+
+        out.writeInt(salesByDate.size());
+        for (Map.Entry<Long, IntLongCounter> day : salesByDate.entrySet()) {
+            out.writeLong(day.getKey());
+            day
+                    .getValue()
+                    .writeTo(out);
+        }
+
+        out.writeInt(salesByCustomer.size());
+        for (Map.Entry<Integer, LongList> customer : salesByCustomer.entrySet()) {
+            out.writeInt(customer.getKey());
+            customer
+                    .getValue()
+                    .writeTo(out);
+        }
+    }
+
+    /**
+     * Restores sales data written by writeSnapshot, only used while constructing.
+     * Replaces anything read from a previous snapshot that turned out to be damaged
+     *
+     * @param in Source to read from
+     * @throws IOException The data is malformed
+     */
+    private void readSnapshot (ByteBuffer in) throws IOException {
+        this.salesByDate.clear();
+        this.salesByCustomer.clear();
+        this.store.readFrom(in);
+
+        int days = in.getInt();
+        for (int i = 0; i < days; i++)
+            this.salesByDate.put(in.getLong(), IntLongCounter.readFrom(in));
+
+        int customers = in.getInt();
+        for (int i = 0; i < customers; i++)
+            this.salesByCustomer.put(in.getInt(), LongList.readFrom(in));
     }
 
     /**
      * @param data Sales data in JSON form
      * @throws MissingDataException Thrown if the customer ID is missing and a customer object was passed
+     * @throws IOException          Thrown if the sale could not be written to the journal
+     */
+    void recordSale (JSONObject data) throws MissingDataException, NoSuchCustomerException, IOException {
+
+        Transaction transaction = this.toTransaction(data);
+        if (data.has("customer")) transaction.setCustomer(this.findCustomer(data.getInt("customer"), new HashMap<>()));
+
+        // Write ahead, the sale is only counted once it is in the journal
+        transaction.setSequence(this.journal.append(transaction.toBytes()));
+        this.publish(transaction);
+
+    }
+
+    /**
+     * Records several sales at once. Valid sales are written to the journal in a single step,
+     * invalid ones are reported and skipped.
+     *
+     * @param batch Sales data in JSON form, null entries are reported as invalid
+     * @return A JSONArray with the status of each sale, in the same order as the batch
+     * @throws IOException Thrown if the sales could not be written to the journal, none of them were recorded
      */
-    void recordSale (JSONObject data) throws MissingDataException, NoSuchCustomerException {
+    JSONArray recordSales (List<JSONObject> batch) throws IOException {
+        return this.recordSales(batch, false);
+    }
+
+    /**
+     * Records several sales at once. Valid sales are written to the journal in a single step,
+     * invalid ones are reported and skipped.
+     *
+     * @param batch               Sales data in JSON form, null entries are reported as invalid
+     * @param keepWithoutCustomer Record sales whose customer can't be looked up without the customer instead of
+     *                            skipping them, for sales that were already accepted. Their status has a message
+     * @return A JSONArray with the status of each sale, in the same order as the batch
+     * @throws IOException Thrown if the sales could not be written to the journal, none of them were recorded
+     */
+    JSONArray recordSales (List<JSONObject> batch, boolean keepWithoutCustomer) throws IOException {
+        JSONArray statuses = new JSONArray();
+        List<Transaction> transactions = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        // Customers looked up within this batch
+        HashMap<Integer, Customer> customers = new HashMap<>();
+
+        for (int index = 0; index < batch.size(); index++) {
+            JSONObject status = new JSONObject().put("index", index);
+            try {
+                JSONObject data = batch.get(index);
+                if (data == null) throw new MissingDataException("Sale must be a JSON object");
+                Transaction transaction = this.toTransaction(data);
+                if (data.has("customer")) {
+                    int customerNo = data.getInt("customer");
+                    try {
+                        transaction.setCustomer(this.findCustomer(customerNo, customers));
+                    } catch (NoSuchCustomerException | RuntimeException ex) {
+                        if (!keepWithoutCustomer) throw ex;
+                        status.put("message", "Recorded without customer " + customerNo + ": " + ex.getMessage());
+                    }
+                }
+                transactions.add(transaction);
+                records.add(transaction.toBytes());
+                status.put("status", HttpStatus.NO_CONTENT.value());
+            } catch (MissingDataException | JSONException | IllegalArgumentException ex) {
+                status
+                        .put("status", HttpStatus.BAD_REQUEST.value())
+                        .put("message", ex.getMessage());
+            } catch (NoSuchCustomerException ex) {
+                status
+                        .put("status", HttpStatus.NOT_FOUND.value())
+                        .put("message", ex.getMessage());
+            }
+            statuses.put(status);
+        }
+
+        if (!records.isEmpty()) {
+            long sequence = this.journal.append(records);
+            for (Transaction transaction : transactions)
+                this.publish(transaction.setSequence(sequence++));
+        }
+        return statuses;
+    }
 
+    /**
+     * Builds a transaction from sales data, without the customer
+     *
+     * @param data Sales data in JSON form
+     * @return The transaction, not yet recorded
+     * @throws MissingDataException     The sales property is missing
+     * @throws IllegalArgumentException The timestamp is not a UNIX timestamp in seconds up to now
+     */
+    private Transaction toTransaction (JSONObject data) throws MissingDataException {
+        if (!data.has("sales")) throw new MissingDataException("Missing sales");
         JSONArray sales = data.getJSONArray("sales");
-        Customer customer = null;
-        if (data.has("customer")) customer = CustomerRegister
-                .getInstance()
-                .getCustomer(data.getInt("customer"));
 
-        Transaction transaction = Transaction.fromJson(sales);
-        transaction.setCustomer(customer);
+        // Imported sales may carry the time they were made, live sales are stamped now
+        long timestamp = System.currentTimeMillis() / 1000;
+        if (data.has("timestamp")) {
+            Object given = data.get("timestamp");
+            String error = given instanceof Number ? Analytics.checkTimestamp(((Number) given).longValue()) : "Timestamp must be a UNIX timestamp";
+            if (error != null) throw new IllegalArgumentException(error);
+            timestamp = ((Number) given).longValue();
+        }
+        Transaction transaction = Transaction.fromJson(sales, timestamp);
+        transaction.setLane(data.optInt("lane", 0));
+        return transaction;
+    }
+
+    /**
+     * Checks the timestamp a sale was made at, as given by the client
+     *
+     * @param timestamp UNIX timestamp in seconds
+     * @return Why the timestamp can't be used, null if it can
+     */
+    static String checkTimestamp (long timestamp) {
+        if (timestamp < 0) return "Timestamp must not be negative";
+        if (timestamp >= MILLISECONDS) return "Timestamp must be in seconds, not milliseconds";
+        if (timestamp > System.currentTimeMillis() / 1000 + MAX_CLOCK_SKEW) return "Timestamp must not be in the future";
+        return null;
+    }
+
+    /**
+     * @param customerNo Customer number
+     * @param customers  Customers already looked up, used as a cache. Looked up customers are also kept for reports
+     * @return The customer
+     * @throws NoSuchCustomerException The customer doesn't exist
+     */
+    private Customer findCustomer (int customerNo, Map<Integer, Customer> customers) throws NoSuchCustomerException {
+        Customer customer = customers.get(customerNo);
+        if (customer == null) {
+            customer = this.customers.getCustomer(customerNo);
+            customers.put(customerNo, customer);
+            this.knownCustomers.put(customerNo, customer);
+        }
+        return customer;
+    }
 
-        this.sales.add(transaction);
+    /**
+     * Hands a journaled transaction over to be applied to the sales data
+     *
+     * @param transaction The journaled transaction
+     */
+    private void publish (Transaction transaction) {
+        this.metrics.record(transaction);
+        while (!this.pending.offer(transaction.getSequence(), transaction)) {
+            // Buffer full, wait for sales still being journaled by other threads
+            this.drain();
+            Thread.onSpinWait();
+        }
+        if (this.pending.backlog(transaction.getSequence()) >= DRAIN_THRESHOLD && this.lock
+                .writeLock()
+                .tryLock()) try {
+            this.applyPending();
+        } finally {
+            this.lock
+                    .writeLock()
+                    .unlock();
+        }
+    }
 
+    /**
+     * Applies all buffered sales that are ready
+     */
+    private void drain () {
+        if (!this.pending.hasNext()) return;
+        this.lock
+                .writeLock()
+                .lock();
+        try {
+            this.applyPending();
+        } finally {
+            this.lock
+                    .writeLock()
+                    .unlock();
+        }
     }
 
     /**
-     * Get a list of all sales in JSON format
+     * Applies the buffered sales that are ready, then moves late sales into place in the store and drops the cached
+     * results for their time span, once for the whole batch. Must hold the write lock
+     */
+    private void applyPending () {
+        long[] span = { Long.MAX_VALUE, Long.MIN_VALUE };
+        this.pending.drain((Transaction transaction) -> {
+            this.add(transaction);
+            span[0] = Math.min(span[0], transaction.getTimestamp());
+            span[1] = Math.max(span[1], transaction.getTimestamp());
+        });
+        this.store.settle();
+        if (span[0] <= span[1]) this.cache.invalidate(span[0], span[1] + 1);
+    }
+
+    /**
+     * Runs a query against the sales data, after applying the buffered sales
      *
-     * @return A JSONObject containing the sales records
+     * @param query The query to run
+     * @return The query result
      */
-    JSONObject getSales () {
-        JSONArray sales = new JSONArray();
-        for (Transaction sale : this.sales) sales.put(sale.toJson());
-        return new JSONObject().put("sales", sales);
+    private <T> T read (Supplier<T> query) {
+        this.drain();
+        this.lock
+                .readLock()
+                .lock();
+        try {
+            return query.get();
+        } finally {
+            this.lock
+                    .readLock()
+                    .unlock();
+        }
+    }
+
+    /**
+     * Runs a query against the sales data, unless its result is cached.
+     * Results stay cached until a sale within the range is applied.
+     *
+     * @param key   The query and its parameters
+     * @param from  UNIX timestamp for the start of the range the query reads, inclusive
+     * @param until UNIX timestamp for the end of the range the query reads, exclusive
+     * @param query The query to run, returning the result in JSON form
+     * @return The query result
+     */
+    private JSONString cached (String key, long from, long until, Supplier<String> query) {
+        String result = this.read(() -> {
+            String hit = this.cache.get(key);
+            if (hit != null) return hit;
+            // Sales can't be applied while reading, so the result is put before any sale could change it
+            String computed = query.get();
+            this.cache.put(key, from, until, computed);
+            return computed;
+        });
+        return () -> result;
+    }
+
+    /**
+     * Adds a transaction to the in-memory sales data, must hold the write lock.
+     * Doesn't touch the query cache, see applyPending
+     *
+     * @param transaction The recorded transaction
+     */
+    private void add (Transaction transaction) {
+        this.appliedSequence = transaction.getSequence();
+        if (transaction.getCustomerNo() != Transaction.NO_CUSTOMER)
+            this.salesByCustomer
+                    .computeIfAbsent(transaction.getCustomerNo(), (Integer customerNo) -> new LongList())
+                    .add(transaction.getSequence());
+        SaleLine[] lines = transaction.getLines();
+        for (SaleLine line : lines)
+            this.store.append(transaction.getTimestamp(), transaction.getSequence(), line.getBarCode(), line.getPrice(), line.getVatRate(), transaction.getCustomerNo(), transaction.getLane(), transaction.getDemographic());
+        if (transaction.getCustomerNo() != Transaction.NO_CUSTOMER) {
+            // Keywords come from the catalog, products since removed only count towards the total
+            HashSet<String> keywords = new HashSet<>();
+            for (SaleLine line : lines) {
+                Product product = line.getProduct();
+                if (product != null && product.getKeyword() != null) keywords.add(product.getKeyword());
+            }
+            this.store.countCustomer(transaction.getTimestamp(), transaction.getCustomerNo(), keywords);
+        }
+
+        long day = transaction.getTimestamp() / (60 * 60 * 24);
+        IntLongCounter daily = this.salesByDate.get(day);
+        if (daily == null) {
+            daily = new IntLongCounter();
+            this.salesByDate.put(day, daily);
+        }
+        for (SaleLine line : lines) daily.increment(line.getBarCode());
+
+        this.feed.publish(transaction);
+    }
+
+    /**
+     * Writes sales in JSON format, in the order they were recorded.
+     * Sales are streamed from the journal, so memory use doesn't grow with the number of sales.
+     * Written as {"sales": [...], "next": sequence}, where next is only present if the limit was reached
+     * and can be passed as after to get the following page.
+     *
+     * @param after Sequence number after which to start, 0 for the first sale
+     * @param limit Maximum number of sales to write
+     * @param out   Target to write to
+     * @throws IOException Reading the journal or writing failed
+     */
+    void writeSales (long after, long limit, Writer out) throws IOException {
+        // Sequence numbers are contiguous, so the applied sales after the start are the next ones in the journal
+        long applied = this.read(() -> this.appliedSequence);
+        long until = limit < applied - after ? after + limit : applied;
+        long[] written = { 0, after };
+
+        out.write("{\"sales\":[");
+        this.journal.read(after, until, (long sequence, byte[] payload) -> {
+            if (written[0] > 0) out.write(',');
+            out.write(Transaction
+                    .fromBytes(payload)
+                    .setSequence(sequence)
+                    .toJson()
+                    .toString());
+            written[0]++;
+            written[1] = sequence;
+        });
+        out.write(']');
+        if (written[0] == limit) out.write(",\"next\":" + written[1]);
+        out.write('}');
+        out.flush();
     }
 
     /**
@@ -74,24 +569,14 @@ class Analytics { //implements Serializable
      *
      * @return JSON object with the data
      */
-    JSONObject getSalesByDate () {
-        // HashMap<timestamp / (60*60*24) [days since epoch], Counter<barcode>>
-        HashMap<Long, Counter<Integer>> grouper = new HashMap<>();
-        for (Transaction transaction : this.sales) {
-            long ts = transaction.getTimestamp();
-            long day = ts / (60 * 60 * 24);
-            if (!grouper.containsKey(day)) grouper.put(day, new Counter<>());
-            for (Product item : transaction.getItems())
-                grouper
-                        .get(day)
-                        .add(item.getBarCode());
-        }
-        JSONObject data = new JSONObject();
-        for (Long day : grouper.keySet())
-            data.put(day.toString(), grouper
-                    .get(day)
-                    .toJson());
-        return data;
+    JSONString getSalesByDate () {
+        // Covers all time, any sale changes it
+        return this.cached("bydate", Long.MIN_VALUE, Long.MAX_VALUE, () -> {
+            JSONObject data = new JSONObject();
+            for (Long day : this.salesByDate.keySet())
+                data.put(day.toString(), this.salesByDate.get(day));
+            return data.toString();
+        });
     }
 
     /**
@@ -100,16 +585,21 @@ class Analytics { //implements Serializable
      * @param customer Customer ID
      * @return A JSONObject containing the sales records
      * @throws NoSuchCustomerException No customer matching the ID
+     * @throws IOException             Reading the sales from the journal failed
      */
-    JSONObject getSales (int customer) throws NoSuchCustomerException {
-        JSONArray sales = new JSONArray();
+    JSONObject getSales (int customer) throws NoSuchCustomerException, IOException {
         Customer c = this.customers.getCustomer(customer);
         if (c == null)
             throw new NoSuchCustomerException(String.format("No customer by number %d", customer));
-        for (Transaction sale : this.sales)
-            if (sale.getCustomer() != null && sale
-                    .getCustomer()
-                    .getId() == customer) sales.put(sale.toJson());
+        long[] sequences = this.read(() -> {
+            LongList found = this.salesByCustomer.get(customer);
+            return found == null ? new long[0] : found.toArray();
+        });
+        JSONArray sales = new JSONArray();
+        this.journal.read(sequences, (long sequence, byte[] payload) -> sales.put(Transaction
+                .fromBytes(payload)
+                .setSequence(sequence)
+                .toJson()));
 
         return new JSONObject()
                 .put("customer", c.toJson())
@@ -121,61 +611,216 @@ class Analytics { //implements Serializable
      *
      * @param rangeStart UNIX timestamp for the start of the time range
      * @param rangeEnd   UNIX timestamp for the end of the time range
-     * @return A JSONObject containing the number of sales mapped by product id
-     */
-    JSONObject getPopular (int rangeStart, int rangeEnd) {
-        System.out.println("START: " + rangeStart + " - end: " + rangeEnd);
-        Counter<Integer> counter = new Counter<>();
-        this.sales.forEach((Transaction transaction) -> {
-            if (transaction.getTimestamp() > rangeStart && transaction.getTimestamp() < rangeEnd)
-                for (Product item : transaction.getItems())
-                    counter.add(item.getBarCode());
+     * @return A JSON object containing the number of sales mapped by product id
+     */
+    JSONString getPopular (int rangeStart, int rangeEnd) {
+        return this.cached("popular/" + rangeStart + "-" + rangeEnd, rangeStart + 1L, rangeEnd, () -> this.executor
+                .aggregate(this.store.slices(rangeStart + 1L, rangeEnd), IntLongCounter::new,
+                        (IntLongCounter counter, SalesPartition partition, int row) -> counter.increment(partition.getBarcode(row)),
+                        (IntLongCounter a, IntLongCounter b) -> {
+                            a.merge(b);
+                            return a;
+                        })
+                .toJSONString());
+    }
+
+    /**
+     * Get the k most sold items for a time range
+     *
+     * @param rangeStart UNIX timestamp for the start of the time range
+     * @param rangeEnd   UNIX timestamp for the end of the time range
+     * @param k          Maximum number of items to return
+     * @return A JSONArray of objects with the barcode and amount sold, most sold first
+     */
+    JSONString getTopPopular (int rangeStart, int rangeEnd, int k) {
+        return this.cached("top/" + k + "/" + rangeStart + "-" + rangeEnd, rangeStart + 1L, rangeEnd, () -> {
+            JSONArray top = new JSONArray();
+            this.store
+                    .top(rangeStart + 1L, rangeEnd, k)
+                    .forEach((Integer barcode, Long amount) -> top.put(new JSONObject()
+                            .put("barCode", barcode)
+                            .put("amount", amount)));
+            return top.toString();
         });
-        return counter.toJson();
     }
 
     /**
+     * Get the items bought by bonus customers for a time range, with the amounts split by sex and the age range
+     * of the buyers. Uses the sex and age recorded with each sale, so no customers are looked up.
+     *
+     * @param rangeStart UNIX timestamp for the start of the time range
+     * @param rangeEnd   UNIX timestamp for the end of the time range
+     * @return A JSONArray of objects with the barcode, name, amount, purchaseByMen, purchaseByWomen,
+     * purchaseByUnspec and ageGroup as [youngest, oldest] (empty if no ages are known)
+     */
+    JSONString getPopularDemographics (int rangeStart, int rangeEnd) {
+        ProductCatalog catalog = ProductCatalog.getInstance();
+        // The names come from the catalog, so results of older catalog versions are not used
+        String key = "demographics/" + catalog.getVersion() + "/" + rangeStart + "-" + rangeEnd;
+        return this.cached(key, rangeStart + 1L, rangeEnd, () -> this.toDemographicsJson(this.store.demographics(rangeStart + 1L, rangeEnd), catalog));
+    }
+
+    /**
+     * @param counts  Amounts sold by barcode and demographic group
+     * @param catalog Catalog to look up the names in
+     * @return The products as returned by getPopularDemographics
+     */
+    private String toDemographicsJson (HashMap<Integer, long[]> counts, ProductCatalog catalog) {
+        JSONArray products = new JSONArray();
+        counts.forEach((Integer barcode, long[] groups) -> {
+            long[] bySex = new long[3];
+            int youngest = Integer.MAX_VALUE;
+            int oldest = -1;
+            for (int group = 0; group < groups.length; group++) {
+                if (groups[group] == 0) continue;
+                bySex[Demographics.sex(group)] += groups[group];
+                if (Demographics.minAge(group) < 0) continue;
+                youngest = Math.min(youngest, Demographics.minAge(group));
+                oldest = Math.max(oldest, Demographics.maxAge(group));
+            }
+
+            Product product = catalog.getProduct(barcode);
+            JSONArray ageGroup = new JSONArray();
+            if (oldest >= 0) ageGroup
+                    .put(youngest)
+                    .put(oldest);
+            products.put(new JSONObject()
+                    .put("barCode", barcode)
+                    .put("name", product == null ? "" : product.getName())
+                    .put("amount", bySex[Demographics.MALE] + bySex[Demographics.FEMALE] + bySex[Demographics.UNSPECIFIED])
+                    .put("purchaseByMen", bySex[Demographics.MALE])
+                    .put("purchaseByWomen", bySex[Demographics.FEMALE])
+                    .put("purchaseByUnspec", bySex[Demographics.UNSPECIFIED])
+                    .put("ageGroup", ageGroup));
+        });
+        return products.toString();
+    }
+
+    /**
+     * @return A subscription to the sales applied from now on, as Server-Sent Events
+     */
+    SseEmitter subscribe () {
+        return this.feed.subscribe();
+    }
+
+    /**
+     * Get the throughput over the last seconds
+     *
+     * @param window Length of the window in seconds
+     * @return A JSONObject with the counts in total and by lane
+     * @throws IllegalArgumentException The window is not positive or longer than the longest window kept
+     */
+    JSONObject getLiveMetrics (int window) {
+        if (window < 1 || window > this.metrics.getCapacity())
+            throw new IllegalArgumentException(String.format("Window must be between 1 and %d seconds", this.metrics.getCapacity()));
+        return this.metrics.toJson(window);
+    }
+
+    /**
+     * Get the revenue for a time range, split into time buckets. Amounts are in cents, VAT rates in percent.
+     *
+     * @param rangeStart UNIX timestamp for the start of the time range
+     * @param rangeEnd   UNIX timestamp for the end of the time range
+     * @param bucket     Size of the time buckets
+     * @return A JSONArray with an object for each bucket with sales, in time order. Each has the start of the bucket,
+     * the gross, net and vat totals, and the same totals for each VAT rate under rates
+     */
+    JSONString getRevenue (int rangeStart, int rangeEnd, PartitionSize bucket) {
+        return this.cached("revenue/" + bucket + "/" + rangeStart + "-" + rangeEnd, rangeStart + 1L, rangeEnd, () -> this.toRevenueJson(this.store.revenue(rangeStart + 1L, rangeEnd, bucket)));
+    }
+
+    /**
+     * @param revenue Totals by bucket start and VAT rate
+     * @return The buckets as returned by getRevenue
+     */
+    private String toRevenueJson (TreeMap<Long, HashMap<Integer, long[]>> revenue) {
+        JSONArray buckets = new JSONArray();
+        revenue.forEach((Long start, HashMap<Integer, long[]> rates) -> {
+            long gross = 0;
+            long vat = 0;
+            JSONArray byRate = new JSONArray();
+            for (Map.Entry<Integer, long[]> rate : new TreeMap<>(rates).entrySet()) {
+                long[] total = rate.getValue();
+                gross += total[0];
+                vat += total[1];
+                byRate.put(new JSONObject()
+                        .put("rate", rate.getKey() / 100.0)
+                        .put("gross", total[0])
+                        .put("net", total[0] - total[1])
+                        .put("vat", total[1]));
+            }
+            buckets.put(new JSONObject()
+                    .put("start", start)
+                    .put("gross", gross)
+                    .put("net", gross - vat)
+                    .put("vat", vat)
+                    .put("rates", byRate));
+        });
+        return buckets.toString();
+    }
+
+    /**
+     * Estimate the number of distinct bonus customers for a time range.
+     * The range is widened to whole days, the estimate is typically within 2% of the true count.
+     *
+     * @param rangeStart UNIX timestamp for the start of the time range
+     * @param rangeEnd   UNIX timestamp for the end of the time range
+     * @param keyword    Only count customers buying products with this keyword, null for all customers
+     * @return A JSONObject with the estimate and the start and end of the days counted
+     */
+    JSONObject getDistinctCustomers (int rangeStart, int rangeEnd, String keyword) {
+        PartitionSize days = this.store.getPartitionSize();
+        long from = days.floor(rangeStart + 1L);
+        long until = days.floor(rangeEnd - 1L) + days.getSeconds();
+        long distinct = this.read(() -> this.store.distinctCustomers(from, until, keyword));
+        JSONObject data = new JSONObject()
+                .put("start", from)
+                .put("end", until)
+                .put("customers", distinct);
+        if (keyword != null) data.put("keyword", keyword);
+        return data;
+    }
+
+    /**
+     * Get the items bought by each bonus customer for a time range.
+     * Customers are taken from the ones looked up while recording sales, only customers not seen since the server
+     * started are looked up in the customer register.
+     *
      * @param rangeStart beginning of range from which to count
      * @param rangeEnd   end of range from which to count
-     * @return JSON object with the data
+     * @return JSON array with an object for each customer, with the customer and the amounts sold by barcode
+     * @throws NoSuchCustomerException A customer with sales is no longer in the customer register
      */
     JSONArray getPopularBonus (int rangeStart, int rangeEnd) throws NoSuchCustomerException {
-        System.out.println("Calculating popular products among bonus customers");
         JSONArray total = new JSONArray();
-        CustomerRegister customerRegister = CustomerRegister.getInstance();
-
-        HashMap<Integer, Counter<Integer>> salesData = new HashMap<>();
-        for (Transaction transaction : this.sales) {
-            if (transaction.getTimestamp() < rangeStart && transaction.getTimestamp() > rangeEnd)
-                continue;
-
-            Customer customer = transaction.getCustomer();
-            if (customer == null) continue;
-
-            Counter<Integer> counter;
-            if (salesData.containsKey(customer.getId()))
-                counter = salesData.get(customer.getId());
-            else {
-                counter = new Counter<>();
-                salesData.put(customer.getId(), counter);
-            }
-            for (Product item : transaction.getItems())
-                counter.add(item.getBarCode());
-        }
 
-        salesData.forEach((Integer customerId, Counter<Integer> counter) -> {
-            JSONObject data = new JSONObject();
-            try {
-                data.put("customer", customerRegister
-                        .getCustomer(customerId)
-                        .toJson());
-            } catch (NoSuchCustomerException e) {
-                // This should never happen as this class doesn't add the customer object to a transaction unless it's a valid customer
-                e.printStackTrace();
-            }
-            data.put("sales", counter.toJson());
-            total.put(data);
-        });
+        HashMap<Integer, IntLongCounter> salesData = this.read(() -> this.executor.aggregate(this.store.slices(rangeStart + 1L, rangeEnd), HashMap::new,
+                (HashMap<Integer, IntLongCounter> counters, SalesPartition partition, int row) -> {
+                    int customerId = partition.getCustomer(row);
+                    if (customerId == SalesStore.NO_CUSTOMER) return;
+
+                    IntLongCounter counter = counters.get(customerId);
+                    if (counter == null) {
+                        counter = new IntLongCounter();
+                        counters.put(customerId, counter);
+                    }
+                    counter.increment(partition.getBarcode(row));
+                },
+                (HashMap<Integer, IntLongCounter> a, HashMap<Integer, IntLongCounter> b) -> {
+                    b.forEach((Integer customerId, IntLongCounter counter) -> a.merge(customerId, counter, (IntLongCounter x, IntLongCounter y) -> {
+                        x.merge(y);
+                        return x;
+                    }));
+                    return a;
+                }));
+
+        // Looked up after releasing the read lock, so sales keep being applied meanwhile
+        for (Map.Entry<Integer, IntLongCounter> customer : salesData.entrySet())
+            total.put(new JSONObject()
+                    .put("customer", this
+                            .findCustomer(customer.getKey(), this.knownCustomers)
+                            .toJson())
+                    .put("sales", customer.getValue()));
 
         return total;
     }
@@ -7,6 +7,8 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import sharedResources.productCatalog.ProductCatalog;
 
+import java.util.HashMap;
+
 @SpringBootApplication
 public class Backend {
 
@@ -24,9 +26,35 @@ public class Backend {
             catalog.fetchProducts("http://localhost:9003/rest/findByName/*");
 
             // HARD CODE A PRICE FOR TESTING PURPOSES!
+            HashMap<Integer, Float> prices = new HashMap<>();
             catalog
                     .getAllProducts()
-                    .forEach((k, v) -> v.setPrice(Math.round((float) ((float) .50 + Math.random() * (100 - .50)) / 10)));
+                    .forEach((k, v) -> {
+                        // Random whole price from 0 to 10, the rounded int is widened to a float
+                        float price = Math.round((float) ((float) .50 + Math.random() * (100 - .50)) / 10);
+                        prices.put(k, price);
+                    });
+            catalog.setPrices(prices);
+
+            System.out.println("Restoring recorded sales");
+            Analytics.getInstance();
+            if (Settings.asyncIngest()) IngestionPipeline.getInstance();
+
+            Runtime
+                    .getRuntime()
+                    .addShutdownHook(new Thread(() -> {
+                        try {
+                            // Record queued sales before the journal is closed
+                            if (Settings.asyncIngest()) IngestionPipeline
+                                    .getInstance()
+                                    .close();
+                            Analytics
+                                    .getInstance()
+                                    .close();
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                        }
+                    }));
 
         };
     }
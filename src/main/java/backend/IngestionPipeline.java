@@ -0,0 +1,216 @@
+package backend;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import sharedResources.productCatalog.Product;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous sale ingestion.
+ *
+ * The sale endpoint validates a sale as far as it can without resolving anything and puts it on a bounded queue.
+ * Consumer threads take the queued sales in batches and record them, which resolves customers, writes the journal
+ * and updates the analytics. An accepted sale is never dropped: a batch that can't be journaled is retried,
+ * and a sale whose customer can't be looked up is recorded without the customer. Sales that could not be fully
+ * recorded are appended to a dead letter file, see {@link #deadLetter}.
+ * Sales accepted but not yet recorded are lost if the process dies, the queue is drained on a normal shutdown.
+ */
+class IngestionPipeline {
+
+    // Longest wait between attempts to record a batch
+    private static final long MAX_BACKOFF = 30_000;
+
+    private final ArrayBlockingQueue<JSONObject> queue;
+    private final int batchSize;
+    private final Thread[] consumers;
+    private final Path deadLetters;
+    private volatile boolean running;
+
+    private IngestionPipeline (int capacity, int batchSize, int consumers, Path deadLetters) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.deadLetters = deadLetters;
+        this.consumers = new Thread[consumers];
+        this.running = true;
+        for (int i = 0; i < consumers; i++) {
+            this.consumers[i] = new Thread(this::consume, "sale-ingestion-" + i);
+            this.consumers[i].setDaemon(true);
+            this.consumers[i].start();
+        }
+    }
+
+    private static class Holder {
+        private static final IngestionPipeline INSTANCE = new IngestionPipeline(Settings.ingestQueueCapacity(), Settings.ingestBatchSize(), Settings.ingestConsumers(), Settings.ingestDeadLetterFile());
+    }
+
+    /**
+     * Get the pipeline singleton, the consumers are started on first use
+     *
+     * @return The pipeline instance
+     */
+    static IngestionPipeline getInstance () {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Checks that a sale can be recorded, short of looking up the customer. Parses the items the same way recording
+     * does, so a sale that passes can only fail to record because of its customer.
+     *
+     * @param data Sales data in JSON form
+     * @return An error message, or null if the sale is valid
+     */
+    static String validate (JSONObject data) {
+        JSONArray sales = data.optJSONArray("sales");
+        if (sales == null) return "Missing sales";
+        for (int i = 0; i < sales.length(); i++) {
+            JSONObject item = sales.optJSONObject(i);
+            if (item == null) return "Sold item " + i + " must be an object";
+            try {
+                Product.fromJson(item);
+            } catch (JSONException ex) {
+                return "Sold item " + i + ": " + ex.getMessage();
+            }
+        }
+        if (data.has("customer") && data.optInt("customer", -1) < 0) return "Customer must be a customer number";
+        if (data.has("timestamp")) {
+            if (!(data.opt("timestamp") instanceof Number)) return "Timestamp must be a UNIX timestamp";
+            return Analytics.checkTimestamp(((Number) data.opt("timestamp")).longValue());
+        }
+        return null;
+    }
+
+    /**
+     * Queue a sale for recording. The sale is stamped with the current time unless it already has a timestamp.
+     *
+     * @param data Validated sales data in JSON form
+     * @return false if the queue is full or the pipeline has been shut down
+     */
+    boolean offer (JSONObject data) {
+        if (!this.running) return false;
+        if (!data.has("timestamp")) data.put("timestamp", System.currentTimeMillis() / 1000);
+        return this.queue.offer(data);
+    }
+
+    /**
+     * @return Number of sales waiting to be recorded
+     */
+    int backlog () {
+        return this.queue.size();
+    }
+
+    private void consume () {
+        List<JSONObject> batch = new ArrayList<>(this.batchSize);
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                JSONObject first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                this.queue.drainTo(batch, this.batchSize - 1);
+                this.record(batch);
+            } catch (InterruptedException ex) {
+                // The batch taken is not lost
+                this.deadLetter(batch, "Interrupted before recording");
+                Thread
+                        .currentThread()
+                        .interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Records a batch of accepted sales. Nothing of a batch is journaled when recording it fails.
+     * A batch that can't be journaled is retried with a growing wait, or written to the dead letter file once
+     * shutting down. A batch failing for another reason is recorded a sale at a time, to set aside the failing sale.
+     *
+     * @param batch Sales to record
+     * @throws InterruptedException Interrupted while waiting to retry
+     */
+    private void record (List<JSONObject> batch) throws InterruptedException {
+        long backoff = 100;
+        while (true) {
+            try {
+                JSONArray statuses = Analytics
+                        .getInstance()
+                        .recordSales(batch, true);
+                for (int i = 0; i < statuses.length(); i++) {
+                    JSONObject status = statuses.getJSONObject(i);
+                    if (status.has("message"))
+                        this.deadLetter(batch.get(i), status.getInt("status") < 300, status.getString("message"));
+                }
+                return;
+            } catch (IOException ex) {
+                System.out.println("Failed journaling " + batch.size() + " queued sales:\n" + ex.getMessage());
+                if (!this.running) {
+                    this.deadLetter(batch, "Not journaled before shutdown: " + ex.getMessage());
+                    return;
+                }
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            } catch (RuntimeException ex) {
+                System.out.println("Exception during recording of " + batch.size() + " queued sales:\n" + ex.getMessage());
+                ex.printStackTrace();
+                if (batch.size() == 1) this.deadLetter(batch, "Failed recording: " + ex);
+                else for (JSONObject sale : batch) this.record(List.of(sale));
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param batch  Sales that were not recorded
+     * @param reason Why they were not recorded
+     */
+    private void deadLetter (List<JSONObject> batch, String reason) {
+        for (JSONObject sale : batch) this.deadLetter(sale, false, reason);
+    }
+
+    /**
+     * Appends a sale to the dead letter file, as an object with the sale, whether it was recorded and why it's there.
+     * Sales not recorded can be posted to /api/sales/batch once the cause is fixed, recorded ones must not be.
+     *
+     * @param sale     Sales data in JSON form
+     * @param recorded true if the sale was recorded, only without some of its data
+     * @param reason   What went wrong
+     */
+    private synchronized void deadLetter (JSONObject sale, boolean recorded, String reason) {
+        String line = new JSONObject()
+                .put("reason", reason)
+                .put("recorded", recorded)
+                .put("sale", sale)
+                .toString();
+        try {
+            Path directory = this.deadLetters
+                    .toAbsolutePath()
+                    .getParent();
+            if (directory != null) Files.createDirectories(directory);
+            Files.writeString(this.deadLetters, line + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            // Last resort, keep the sale in the log
+            System.out.println("Failed writing dead letter: " + ex.getMessage() + "\n" + line);
+        }
+    }
+
+    /**
+     * Stops accepting sales and waits for the queued ones to be recorded
+     *
+     * @throws InterruptedException Interrupted while waiting
+     */
+    void close () throws InterruptedException {
+        this.running = false;
+        for (Thread consumer : this.consumers) consumer.join();
+    }
+
+}
@@ -0,0 +1,169 @@
+package backend;
+
+import org.json.JSONString;
+import sharedResources.utils.IntIndex;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Counts things by an int identifier, such as sold items by barcode. Used by the analytics class both for totals
+ * kept over the lifetime of the system and for aggregating queries, so the counts are longs.
+ * Keys and counts are kept in primitive arrays in the order they were first counted, found through an IntIndex,
+ * so incrementing doesn't allocate. Not thread safe.
+ */
+class IntLongCounter implements JSONString {
+
+    /**
+     * Receives the counted keys
+     */
+    @FunctionalInterface
+    interface Visitor {
+        void visit (int key, long count);
+    }
+
+    private final IntIndex index;
+    // Keys and counts by position in the index
+    private int[] keys;
+    private long[] counts;
+    private int size;
+
+    IntLongCounter () {
+        this(16);
+    }
+
+    /**
+     * @param expected Number of keys expected, to avoid growing
+     */
+    IntLongCounter (int expected) {
+        this.index = new IntIndex(expected);
+        this.keys = new int[Math.max(expected, 4)];
+        this.counts = new long[this.keys.length];
+    }
+
+    /**
+     * @param source Counter to copy
+     */
+    IntLongCounter (IntLongCounter source) {
+        this.index = new IntIndex(source.index);
+        this.keys = source.keys.clone();
+        this.counts = source.counts.clone();
+        this.size = source.size;
+    }
+
+    /**
+     * Increments the count of a key
+     *
+     * @param key The key which to increment
+     */
+    void increment (int key) {
+        this.add(key, 1);
+    }
+
+    /**
+     * Adds to the count of a key
+     *
+     * @param key    The key which to add to
+     * @param amount The amount to add
+     */
+    void add (int key, long amount) {
+        int position = this.index.putIfAbsent(key, this.size);
+        if (position < 0) {
+            position = this.size++;
+            if (position == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, position * 2);
+                this.counts = Arrays.copyOf(this.counts, position * 2);
+            }
+            this.keys[position] = key;
+        }
+        this.counts[position] += amount;
+    }
+
+    /**
+     * Adds all counts of another counter to this one
+     *
+     * @param other The counter to merge in
+     */
+    void merge (IntLongCounter other) {
+        for (int i = 0; i < other.size; i++) this.add(other.keys[i], other.counts[i]);
+    }
+
+    /**
+     * @param key The key to look up
+     * @return Count of the key, 0 if never counted
+     */
+    long get (int key) {
+        int position = this.index.get(key);
+        return position < 0 ? 0 : this.counts[position];
+    }
+
+    /**
+     * @param visitor Called with each key and its count, in the order the keys were first counted
+     */
+    void forEach (Visitor visitor) {
+        for (int i = 0; i < this.size; i++) visitor.visit(this.keys[i], this.counts[i]);
+    }
+
+    /**
+     * @return Number of distinct keys counted
+     */
+    int size () {
+        return this.size;
+    }
+
+    boolean hasValues () {
+        return this.size > 0;
+    }
+
+    /**
+     * @return A JSON object of the counts mapped by key, written directly without building a JSONObject
+     */
+    @Override
+    public String toJSONString () {
+        StringBuilder json = new StringBuilder(this.size * 12 + 2).append('{');
+        for (int i = 0; i < this.size; i++) {
+            if (i > 0) json.append(',');
+            json
+                    .append('"')
+                    .append(this.keys[i])
+                    .append("\":")
+                    .append(this.counts[i]);
+        }
+        return json
+                .append('}')
+                .toString();
+    }
+
+    @Override
+    public String toString () {
+        return this.toJSONString();
+    }
+
+    /**
+     * Writes the counts in binary form, the counterpart of readFrom
+     *
+     * @param out Target to write to
+     * @throws IOException Writing failed
+     */
+    void writeTo (DataOutput out) throws IOException {
+        out.writeInt(this.size);
+        for (int i = 0; i < this.size; i++) {
+            out.writeInt(this.keys[i]);
+            out.writeLong(this.counts[i]);
+        }
+    }
+
+    /**
+     * @param in Source written by writeTo
+     * @return The counter read
+     */
+    static IntLongCounter readFrom (ByteBuffer in) {
+        int size = in.getInt();
+        IntLongCounter counter = new IntLongCounter(size);
+        for (int i = 0; i < size; i++) counter.add(in.getInt(), in.getLong());
+        return counter;
+    }
+
+}
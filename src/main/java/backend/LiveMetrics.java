@@ -0,0 +1,84 @@
+package backend;
+
+import backend.storage.SlidingWindow;
+import backend.structures.Transaction;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Throughput of the sales recorded while running, in total and by lane, over sliding windows of recent seconds.
+ * Sales are counted by the time they were recorded, sales replayed from the journal are not counted.
+ */
+class LiveMetrics {
+
+    private final int capacity;
+    private final SlidingWindow total;
+    private final ConcurrentHashMap<Integer, SlidingWindow> lanes;
+
+    /**
+     * @param capacity Longest window in seconds
+     */
+    LiveMetrics (int capacity) {
+        this.capacity = capacity;
+        this.total = new SlidingWindow(capacity);
+        this.lanes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Count a recorded sale
+     *
+     * @param transaction The sale
+     */
+    void record (Transaction transaction) {
+        long now = System.currentTimeMillis() / 1000;
+        int items = transaction.getLines().length;
+        long revenue = 0;
+        for (int i = 0; i < items; i++) revenue += transaction.getPrice(i);
+
+        this.total.record(now, items, revenue);
+        this.lanes
+                .computeIfAbsent(transaction.getLane(), (Integer lane) -> new SlidingWindow(this.capacity))
+                .record(now, items, revenue);
+    }
+
+    /**
+     * @return Longest window in seconds
+     */
+    int getCapacity () {
+        return this.capacity;
+    }
+
+    /**
+     * @param window Length of the window in seconds, at most the capacity
+     * @return A JSONObject with the window length, the number of sales, items and revenue in cents within it,
+     * sales per minute and the same counts for each lane
+     */
+    JSONObject toJson (int window) {
+        long now = System.currentTimeMillis() / 1000;
+        JSONObject metrics = this
+                .totalsJson(this.total.totals(now, window), window)
+                .put("window", window);
+
+        JSONArray lanes = new JSONArray();
+        for (Map.Entry<Integer, SlidingWindow> lane : new TreeMap<>(this.lanes).entrySet())
+            lanes.put(this
+                    .totalsJson(lane
+                            .getValue()
+                            .totals(now, window), window)
+                    .put("lane", lane.getKey()));
+        return metrics.put("lanes", lanes);
+    }
+
+    private JSONObject totalsJson (long[] totals, int window) {
+        return new JSONObject()
+                .put("sales", totals[0])
+                .put("items", totals[1])
+                .put("revenue", totals[2])
+                .put("salesPerMinute", totals[0] * 60.0 / window);
+    }
+
+}
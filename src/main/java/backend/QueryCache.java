@@ -0,0 +1,103 @@
+package backend;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the JSON results of recent queries, keyed by the query and its parameters, along with the time range
+ * the query covered. Applying sales only drops the results whose range overlaps the time span of the sales, so results
+ * for closed ranges in the past stay valid. Sales are applied in batches and each batch invalidates once, so the
+ * entries are only scanned once per batch. The least recently used results are evicted once the total length of the
+ * cached results exceeds the capacity.
+ * Safe to use from several threads at once. The caller must keep sales from being applied between running a query
+ * and putting its result, ex. by holding a read lock that applying sales needs the write lock of.
+ */
+class QueryCache {
+
+    private static class Entry {
+        private final long from;
+        private final long until;
+        private final String result;
+
+        private Entry (long from, long until, String result) {
+            this.from = from;
+            this.until = until;
+            this.result = result;
+        }
+    }
+
+    private final long capacity;
+    // Iterates from the least recently used entry
+    private final LinkedHashMap<String, Entry> entries;
+    // Total length of the cached results
+    private long size;
+
+    /**
+     * @param capacity Maximum total length of the cached results in characters, 0 to disable caching
+     */
+    QueryCache (long capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    /**
+     * @param key The query and its parameters
+     * @return The cached result, null if not cached
+     */
+    synchronized String get (String key) {
+        Entry entry = this.entries.get(key);
+        return entry == null ? null : entry.result;
+    }
+
+    /**
+     * Cache the result of a query, evicting the least recently used results if needed
+     *
+     * @param key    The query and its parameters
+     * @param from   UNIX timestamp for the start of the range the query covered, inclusive
+     * @param until  UNIX timestamp for the end of the range the query covered, exclusive
+     * @param result The result in JSON form
+     */
+    synchronized void put (String key, long from, long until, String result) {
+        // A result larger than the whole cache would only evict everything else
+        if (result.length() > this.capacity) return;
+        Entry previous = this.entries.put(key, new Entry(from, until, result));
+        if (previous != null) this.size -= previous.result.length();
+        this.size += result.length();
+
+        Iterator<Entry> eldest = this.entries
+                .values()
+                .iterator();
+        while (this.size > this.capacity) {
+            this.size -= eldest.next().result.length();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drop the results that sales within a time span may change
+     *
+     * @param from  UNIX timestamp of the earliest sale, inclusive
+     * @param until UNIX timestamp after the latest sale, exclusive
+     */
+    synchronized void invalidate (long from, long until) {
+        if (this.entries.isEmpty()) return;
+        Iterator<Entry> iterator = this.entries
+                .values()
+                .iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (from < entry.until && until > entry.from) {
+                this.size -= entry.result.length();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return Number of cached results
+     */
+    synchronized int size () {
+        return this.entries.size();
+    }
+
+}
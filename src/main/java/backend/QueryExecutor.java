@@ -0,0 +1,118 @@
+package backend;
+
+import backend.storage.SalesPartition;
+import backend.storage.SalesStore;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Aggregates rows of the sales store in parallel. The rows are split into parts of at most the threshold size,
+ * each aggregated into its own result on a fork/join pool, and the results merged pairwise.
+ * Queries smaller than the threshold run on the calling thread.
+ * The caller must keep the store from changing until the aggregation returns.
+ */
+class QueryExecutor {
+
+    /**
+     * Adds a row to a partial result
+     *
+     * @param <R> Type of the result
+     */
+    @FunctionalInterface
+    interface Accumulator<R> {
+        void accumulate (R result, SalesPartition partition, int row);
+    }
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * @param parallelism Number of threads, 1 to always run on the calling thread
+     * @param threshold   Number of rows below which no more work is split off
+     */
+    QueryExecutor (int parallelism, int threshold) {
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.threshold = Math.max(threshold, 1);
+    }
+
+    /**
+     * Aggregate rows into a single result
+     *
+     * @param slices      The rows to aggregate
+     * @param identity    Creates an empty result, called once for each part
+     * @param accumulator Adds a row to a result
+     * @param merger      Combines two results, may return either one after merging the other into it
+     * @param <R>         Type of the result
+     * @return The result over all rows
+     */
+    <R> R aggregate (List<SalesStore.Slice> slices, Supplier<R> identity, Accumulator<R> accumulator, BinaryOperator<R> merger) {
+        long rows = 0;
+        for (SalesStore.Slice slice : slices) rows += slice.size();
+        if (this.pool == null || this.pool.isShutdown() || rows <= this.threshold)
+            return new Aggregation<>(slices, identity, accumulator, merger, Integer.MAX_VALUE).compute();
+        return this.pool.invoke(new Aggregation<>(slices, identity, accumulator, merger, this.threshold));
+    }
+
+    /**
+     * Stops the worker threads, queries run on the calling thread afterwards
+     */
+    void close () {
+        if (this.pool != null) this.pool.shutdown();
+    }
+
+    private static class Aggregation<R> extends RecursiveTask<R> {
+
+        private final List<SalesStore.Slice> slices;
+        private final Supplier<R> identity;
+        private final Accumulator<R> accumulator;
+        private final BinaryOperator<R> merger;
+        private final int threshold;
+
+        private Aggregation (List<SalesStore.Slice> slices, Supplier<R> identity, Accumulator<R> accumulator, BinaryOperator<R> merger, int threshold) {
+            this.slices = slices;
+            this.identity = identity;
+            this.accumulator = accumulator;
+            this.merger = merger;
+            this.threshold = threshold;
+        }
+
+        private Aggregation<R> part (List<SalesStore.Slice> slices) {
+            return new Aggregation<>(slices, this.identity, this.accumulator, this.merger, this.threshold);
+        }
+
+        @Override
+        protected R compute () {
+            long rows = 0;
+            for (SalesStore.Slice slice : this.slices) rows += slice.size();
+
+            if (rows > this.threshold && this.slices.size() > 1) {
+                // Split the partitions in two halves
+                int middle = this.slices.size() / 2;
+                return this.both(this.part(this.slices.subList(0, middle)), this.part(this.slices.subList(middle, this.slices.size())));
+            }
+            if (rows > this.threshold) {
+                // A single partition too large for one task, split its rows
+                SalesStore.Slice slice = this.slices.get(0);
+                int middle = slice.getFirst() + slice.size() / 2;
+                return this.both(this.part(List.of(new SalesStore.Slice(slice.getPartition(), slice.getFirst(), middle))), this.part(List.of(new SalesStore.Slice(slice.getPartition(), middle, slice.getLast()))));
+            }
+
+            R result = this.identity.get();
+            for (SalesStore.Slice slice : this.slices)
+                slice.scan((SalesPartition partition, int row) -> this.accumulator.accumulate(result, partition, row));
+            return result;
+        }
+
+        private R both (Aggregation<R> left, Aggregation<R> right) {
+            left.fork();
+            R computed = right.compute();
+            return this.merger.apply(left.join(), computed);
+        }
+
+    }
+
+}
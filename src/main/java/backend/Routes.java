@@ -1,16 +1,29 @@
 package backend;
 
+import backend.storage.PartitionSize;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONString;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import sharedResources.exceptions.MissingDataException;
 import sharedResources.exceptions.NoSuchCustomerException;
 import sharedResources.productCatalog.Product;
 import sharedResources.productCatalog.ProductCatalog;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
 /**
  * Class for defining the various routes for the API
  */
@@ -24,18 +37,33 @@ public class Routes {
      *                if the customer is a bonus customer, a property "customer"
      *                with the customer data should also be included
      *                ex. {"sales": [{"productId":1, "price": 1.50, "barcode":123123}], "customer": 0}
+     * @return 204 when recorded, or 202 when queued for recording if asynchronous ingestion is enabled
      */
     @RequestMapping(method = RequestMethod.POST, path = "/api/sale", consumes = "application/json")
     public ResponseEntity<String> recordSale (@RequestBody String rawBody) {
-        JSONObject body = new JSONObject(rawBody);
+        JSONObject body;
+        try {
+            body = new JSONObject(rawBody);
+        } catch (JSONException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        }
         if (!body.has("sales")) return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        System.out.println(rawBody);
-        System.out.println(body);
+
+        if (Settings.asyncIngest()) {
+            String error = IngestionPipeline.validate(body);
+            if (error != null) return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
+            if (!IngestionPipeline
+                    .getInstance()
+                    .offer(body))
+                return new ResponseEntity<>("Sale queue is full", HttpStatus.SERVICE_UNAVAILABLE);
+            return new ResponseEntity<>(HttpStatus.ACCEPTED);
+        }
+
         try {
             Analytics
                     .getInstance()
                     .recordSale(body);
-        } catch (MissingDataException | JSONException ex) {
+        } catch (MissingDataException | JSONException | IllegalArgumentException ex) {
             // Return 400
             System.out.println("Missing data: " + ex.getMessage());
             ex.printStackTrace();
@@ -57,14 +85,73 @@ public class Routes {
     }
 
     /**
-     * Get all sales or sales by specific customer
+     * Record many sales at once, ex. when a lane reconnects or for imports
      *
-     * @param customer Optional customer ID
+     * @param rawBody     Either a JSON array of sale objects as accepted by /api/sale, or one sale object per line (NDJSON).
+     *                    A sale may also carry a "timestamp" property with the UNIX timestamp in seconds it was made at,
+     *                    at most a few minutes ahead of the clock of the server
+     * @param contentType application/json or application/x-ndjson
+     * @return A JSON array with a status for each sale, ex. [{"index": 0, "status": 204}, {"index": 1, "status": 404, "message": "..."}]
+     */
+    @RequestMapping(method = RequestMethod.POST, path = "/api/sales/batch", consumes = { "application/json", "application/x-ndjson" }, produces = "application/json")
+    public ResponseEntity<String> recordSales (@RequestBody String rawBody, @RequestHeader("Content-Type") String contentType) {
+        List<JSONObject> batch = new ArrayList<>();
+        if (contentType.startsWith("application/x-ndjson")) {
+            for (String line : rawBody.split("\\r?\\n")) {
+                if (line.isBlank()) continue;
+                try {
+                    batch.add(new JSONObject(line));
+                } catch (JSONException ex) {
+                    // Reported as invalid in the status of the sale
+                    batch.add(null);
+                }
+            }
+        } else try {
+            JSONArray sales = new JSONArray(rawBody);
+            for (int i = 0; i < sales.length(); i++) batch.add(sales.optJSONObject(i));
+        } catch (JSONException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+
+        try {
+            JSONArray statuses = Analytics
+                    .getInstance()
+                    .recordSales(batch);
+            return new ResponseEntity<>(statuses.toString(), HttpStatus.OK);
+        } catch (Exception ex) {
+            System.out.println("Exception during handling of sales batch:\n" + ex.getMessage());
+            ex.printStackTrace();
+            return new ResponseEntity<>("Internal error", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Get all sales, streamed to the client. Can be paged through with after and limit
+     *
+     * @param after Sequence number of the last sale already received, the next property of the previous page
+     * @param limit Maximum number of sales to return, all if not given
+     * @return JSON response {"sales": [...], "next": sequence}, next is only present if the limit was reached
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/sales" }, produces = "application/json")
+    public ResponseEntity<StreamingResponseBody> sales (@RequestParam(required = false, defaultValue = "0") long after, @RequestParam(required = false) Long limit) {
+        if (after < 0 || (limit != null && limit < 1))
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        long max = limit == null ? Long.MAX_VALUE : limit;
+        StreamingResponseBody body = (OutputStream out) -> Analytics
+                .getInstance()
+                .writeSales(after, max, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        return new ResponseEntity<>(body, HttpStatus.OK);
+    }
+
+    /**
+     * Get sales by specific customer
+     *
+     * @param customer Customer ID
      * @return JSON response
      */
-    @RequestMapping(method = RequestMethod.GET, path = { "/api/sales/{customer}", "/api/sales" }, produces = "application/json")
-    public ResponseEntity<String> popular (@PathVariable(required = false) String customer) {
-        if (customer != null) try {
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/sales/{customer}" }, produces = "application/json")
+    public ResponseEntity<String> popular (@PathVariable String customer) {
+        try {
             int id = Integer.parseInt(customer);
             return new ResponseEntity<>(Analytics
                     .getInstance()
@@ -74,11 +161,10 @@ public class Routes {
             return new ResponseEntity<>("Customer must be integer", HttpStatus.BAD_REQUEST);
         } catch (NoSuchCustomerException ex) {
             return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (IOException ex) {
+            System.out.println("Failed reading the sales of customer " + customer + ": " + ex.getMessage());
+            return new ResponseEntity<>("Internal error", HttpStatus.INTERNAL_SERVER_ERROR);
         }
-        else return new ResponseEntity<>(Analytics
-                .getInstance()
-                .getSales()
-                .toString(), HttpStatus.OK);
     }
 
     /**
@@ -88,10 +174,10 @@ public class Routes {
      */
     @RequestMapping(method = RequestMethod.GET, path = { "/api/sales/bydate" }, produces = "application/json")
     public ResponseEntity<String> popularByDate () {
-        JSONObject data = Analytics
+        JSONString data = Analytics
                 .getInstance()
                 .getSalesByDate();
-        return new ResponseEntity<>(data.toString(), HttpStatus.OK);
+        return new ResponseEntity<>(data.toJSONString(), HttpStatus.OK);
     }
 
     /**
@@ -110,10 +196,105 @@ public class Routes {
             return new ResponseEntity<>(popular.toString(), HttpStatus.OK);
         } catch (NoSuchCustomerException ex) {
             return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (RuntimeException ex) {
+            // The customer register failed
+            System.out.println("Failed looking up the bonus customers: " + ex.getMessage());
+            return new ResponseEntity<>("Internal error", HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
     }
 
+    /**
+     * Get items bought by bonus customers for a time range, split by sex and with the age range of the buyers
+     *
+     * @param start Range start as a UNIX timestamp
+     * @param end   Range end as a UNIX timestamp
+     * @return A JSON array with an object for each product
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/popular/{start}-{end}/bonus/demographics" }, produces = "application/json")
+    public ResponseEntity<String> popularDemographics (@PathVariable() int start, @PathVariable() int end) {
+        JSONString popular = Analytics
+                .getInstance()
+                .getPopularDemographics(start, end);
+
+        return new ResponseEntity<>(popular.toJSONString(), HttpStatus.OK);
+    }
+
+    /**
+     * Follow the sales as they are recorded. Sends a "sale" event for each sale with the amount of each product
+     * sold, the revenue and for bonus customers their sex and age range. The event id is the sale's sequence number,
+     * a gap means events were dropped and the client should reload. A "heartbeat" event with the sequence number of
+     * the latest sale is sent every few seconds, so dropped events are noticed even when no more sales follow.
+     *
+     * @return Server-Sent Events stream
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/sales/feed" }, produces = "text/event-stream")
+    public SseEmitter salesFeed () {
+        return Analytics
+                .getInstance()
+                .subscribe();
+    }
+
+    /**
+     * Get the number of sales, items and revenue over the last seconds, in total and by lane.
+     * Takes constant time, meant to be polled.
+     *
+     * @param window Length of the window in seconds, defaults to a minute
+     * @return A JSON object with the counts
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/metrics/live" }, produces = "application/json")
+    public ResponseEntity<String> liveMetrics (@RequestParam(required = false, defaultValue = "60") int window) {
+        try {
+            return new ResponseEntity<>(Analytics
+                    .getInstance()
+                    .getLiveMetrics(window)
+                    .toString(), HttpStatus.OK);
+        } catch (IllegalArgumentException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Get gross revenue, net revenue and VAT for a time range, by hour or by day and by VAT rate.
+     * Amounts are in cents.
+     *
+     * @param start  Range start as a UNIX timestamp
+     * @param end    Range end as a UNIX timestamp
+     * @param bucket hour or day, defaults to day
+     * @return A JSON array with an object for each bucket with sales
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/revenue/{start}-{end}" }, produces = "application/json")
+    public ResponseEntity<String> revenue (@PathVariable() int start, @PathVariable() int end, @RequestParam(required = false, defaultValue = "day") String bucket) {
+        PartitionSize size;
+        try {
+            size = PartitionSize.valueOf(bucket.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            return new ResponseEntity<>("Bucket must be hour or day", HttpStatus.BAD_REQUEST);
+        }
+        JSONString revenue = Analytics
+                .getInstance()
+                .getRevenue(start, end, size);
+
+        return new ResponseEntity<>(revenue.toJSONString(), HttpStatus.OK);
+    }
+
+    /**
+     * Estimate the number of distinct bonus customers for a time range, widened to whole days
+     *
+     * @param start   Range start as a UNIX timestamp
+     * @param end     Range end as a UNIX timestamp
+     * @param keyword Optional product keyword, only counting customers who bought such products. Not case sensitive
+     * @return A JSON object with the estimated number of customers and the range counted
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/customers/distinct/{start}-{end}" }, produces = "application/json")
+    public ResponseEntity<String> distinctCustomers (@PathVariable() int start, @PathVariable() int end, @RequestParam(required = false) String keyword) {
+        JSONObject distinct = Analytics
+                .getInstance()
+                .getDistinctCustomers(start, end, keyword);
+
+        return new ResponseEntity<>(distinct.toString(), HttpStatus.OK);
+    }
+
     /**
      * Get popular items for a time range
      *
@@ -123,11 +304,29 @@ public class Routes {
      */
     @RequestMapping(method = RequestMethod.GET, path = { "/api/popular/{start}-{end}" }, produces = "application/json")
     public ResponseEntity<String> popular (@PathVariable() int start, @PathVariable() int end) {
-        JSONObject popular = Analytics
+        JSONString popular = Analytics
                 .getInstance()
                 .getPopular(start, end);
 
-        return new ResponseEntity<>(popular.toString(), HttpStatus.OK);
+        return new ResponseEntity<>(popular.toJSONString(), HttpStatus.OK);
+    }
+
+    /**
+     * Get the most popular items for a time range
+     *
+     * @param start Range start as a UNIX timestamp
+     * @param end   Range end as a UNIX timestamp
+     * @param k     Number of items to return
+     * @return A JSON array with the barcode and amount of the k most sold items, most sold first
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/popular/{start}-{end}/top/{k}" }, produces = "application/json")
+    public ResponseEntity<String> popularTop (@PathVariable() int start, @PathVariable() int end, @PathVariable() int k) {
+        if (k < 1) return new ResponseEntity<>("k must be positive", HttpStatus.BAD_REQUEST);
+        JSONString top = Analytics
+                .getInstance()
+                .getTopPopular(start, end, k);
+
+        return new ResponseEntity<>(top.toJSONString(), HttpStatus.OK);
     }
 
     /**
@@ -151,11 +350,12 @@ public class Routes {
      */
     @RequestMapping(method = RequestMethod.GET, path = { "/api/productcatalog/barcode/{barcode}" }, produces = "application/json")
     public ResponseEntity<String> getByBarcode (@PathVariable int barcode) {
-        ProductCatalog catalog = ProductCatalog.getInstance();
-        if (!catalog.has(barcode))
+        Product product = ProductCatalog
+                .getInstance()
+                .findProductByBarCode(barcode);
+        if (product == null)
             return new ResponseEntity<>(JSONObject.NULL.toString(), HttpStatus.NOT_FOUND);
-        return new ResponseEntity<>(catalog
-                .findProductByBarCode(barcode)
+        return new ResponseEntity<>(product
                 .toJson()
                 .toString(), HttpStatus.OK);
     }
@@ -196,6 +396,46 @@ public class Routes {
                 .toString(), HttpStatus.OK);
     }
 
+    /**
+     * Suggest products as the user types, by the beginning of the name, a word in the name or the keyword
+     *
+     * @param prefix What has been typed so far, at most 64 characters
+     * @param limit  Maximum number of products, from 1 to 100, defaults to 10
+     * @return A JSON array with the matching products
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/productcatalog/suggest/{prefix}" }, produces = "application/json")
+    public ResponseEntity<String> suggest (@PathVariable String prefix, @RequestParam(required = false, defaultValue = "10") int limit) {
+        if (limit < 1 || limit > 100)
+            return new ResponseEntity<>("Limit must be between 1 and 100", HttpStatus.BAD_REQUEST);
+        if (prefix.length() > ProductCatalog.MAX_QUERY_LENGTH)
+            return new ResponseEntity<>("Prefix must be at most " + ProductCatalog.MAX_QUERY_LENGTH + " characters", HttpStatus.BAD_REQUEST);
+        JSONArray products = new JSONArray();
+        for (Product product : ProductCatalog
+                .getInstance()
+                .suggest(prefix, limit)) products.put(product.toJson());
+        return new ResponseEntity<>(products.toString(), HttpStatus.OK);
+    }
+
+    /**
+     * Search products by a name or keyword that may be misspelled
+     *
+     * @param query A name, a word in the name or a keyword, at most 64 characters
+     * @param limit Maximum number of products, from 1 to 100, defaults to 10
+     * @return A JSON array with the matching products, best match first
+     */
+    @RequestMapping(method = RequestMethod.GET, path = { "/api/productcatalog/search/{query}" }, produces = "application/json")
+    public ResponseEntity<String> search (@PathVariable String query, @RequestParam(required = false, defaultValue = "10") int limit) {
+        if (limit < 1 || limit > 100)
+            return new ResponseEntity<>("Limit must be between 1 and 100", HttpStatus.BAD_REQUEST);
+        if (query.length() > ProductCatalog.MAX_QUERY_LENGTH)
+            return new ResponseEntity<>("Query must be at most " + ProductCatalog.MAX_QUERY_LENGTH + " characters", HttpStatus.BAD_REQUEST);
+        JSONArray products = new JSONArray();
+        for (Product product : ProductCatalog
+                .getInstance()
+                .search(query, limit)) products.put(product.toJson());
+        return new ResponseEntity<>(products.toString(), HttpStatus.OK);
+    }
+
     /**
      * Set the price of a product
      *
@@ -216,9 +456,7 @@ public class Routes {
             return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
         }
 
-        catalog
-                .getProduct(barcode)
-                .setPrice(price);
+        if (!catalog.setPrice(barcode, price)) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
 
     }
@@ -0,0 +1,161 @@
+package backend;
+
+import backend.storage.Demographics;
+import backend.structures.SaleLine;
+import backend.structures.Transaction;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import sharedResources.productCatalog.Product;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes applied sales to subscribed dashboards as Server-Sent Events.
+ * Each event carries the change the sale makes to the rollups, so clients can keep their views up to date
+ * without running the queries again. Events are sent in sequence order from a single thread, so a slow client
+ * never holds up ingestion. When too many events are waiting some are dropped, clients notice the gap in the
+ * sequence numbers and reload. Heartbeats carrying the latest sequence number go through the same queue, so the gap
+ * is noticed even when the dropped events were the last ones.
+ */
+class SalesFeed {
+
+    private static final String[] SEXES = { "MALE", "FEMALE", "UNSPECIFIED" };
+
+    private final CopyOnWriteArrayList<SseEmitter> subscribers;
+    private final ThreadPoolExecutor sender;
+    // Sequence number of the latest published sale, set after its event is queued or dropped
+    private volatile long lastSequence;
+
+    /**
+     * @param capacity Number of events that may wait to be sent
+     */
+    SalesFeed (int capacity) {
+        this.subscribers = new CopyOnWriteArrayList<>();
+        this.sender = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity), (Runnable runnable) -> {
+            Thread thread = new Thread(runnable, "sales-feed");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * @return A new subscription, receiving sales applied from now on
+     */
+    SseEmitter subscribe () {
+        // Without a timeout, the subscription lasts until the client disconnects
+        SseEmitter emitter = new SseEmitter(0L);
+        emitter.onCompletion(() -> this.subscribers.remove(emitter));
+        emitter.onTimeout(() -> this.subscribers.remove(emitter));
+        emitter.onError((Throwable error) -> this.subscribers.remove(emitter));
+        this.subscribers.add(emitter);
+        return emitter;
+    }
+
+    /**
+     * @return true if anyone is subscribed
+     */
+    boolean isLive () {
+        return !this.subscribers.isEmpty();
+    }
+
+    /**
+     * Queue an applied sale to be sent to the subscribers, must be called in sequence order
+     *
+     * @param transaction The sale
+     */
+    void publish (Transaction transaction) {
+        if (!this.subscribers.isEmpty()) this.sender.execute(() -> this.send("sale", transaction.getSequence(), SalesFeed
+                .toEvent(transaction)
+                .toString()));
+        // Only once the sale is queued, so a heartbeat carrying its number is queued behind it
+        this.lastSequence = transaction.getSequence();
+    }
+
+    /**
+     * Queue a heartbeat with the sequence number of the latest published sale, sent after the sales queued before it
+     */
+    void heartbeat () {
+        if (this.subscribers.isEmpty()) return;
+        long sequence = this.lastSequence;
+        this.sender.execute(() -> this.send("heartbeat", sequence, new JSONObject()
+                .put("sequence", sequence)
+                .toString()));
+    }
+
+    /**
+     * Ends all subscriptions
+     */
+    void close () {
+        this.sender.shutdown();
+        for (SseEmitter emitter : this.subscribers) emitter.complete();
+    }
+
+    private void send (String name, long sequence, String data) {
+        for (SseEmitter emitter : this.subscribers) {
+            try {
+                emitter.send(SseEmitter
+                        .event()
+                        .id(Long.toString(sequence))
+                        .name(name)
+                        .data(data));
+            } catch (IOException | IllegalStateException ex) {
+                // The client went away
+                this.subscribers.remove(emitter);
+                emitter.completeWithError(ex);
+            }
+        }
+    }
+
+    /**
+     * @param transaction The sale
+     * @return The sale event, with the sequence number, timestamp, lane, revenue in cents and the amount of each
+     * product sold. For bonus customers also the customer number, sex and age range
+     */
+    static JSONObject toEvent (Transaction transaction) {
+        // LinkedHashMap<barcode, [amount]> keeping the order of the items
+        LinkedHashMap<Integer, int[]> amounts = new LinkedHashMap<>();
+        LinkedHashMap<Integer, String> names = new LinkedHashMap<>();
+        long revenue = 0;
+        for (SaleLine line : transaction.getLines()) {
+            amounts.computeIfAbsent(line.getBarCode(), (Integer barcode) -> new int[1])[0]++;
+            if (!names.containsKey(line.getBarCode())) {
+                Product product = line.getProduct();
+                names.put(line.getBarCode(), product == null ? "" : product.getName());
+            }
+            revenue += line.getPrice();
+        }
+
+        JSONArray products = new JSONArray();
+        amounts.forEach((Integer barcode, int[] amount) -> products.put(new JSONObject()
+                .put("barCode", barcode)
+                .put("name", names.get(barcode))
+                .put("amount", amount[0])));
+
+        JSONObject event = new JSONObject()
+                .put("sequence", transaction.getSequence())
+                .put("timestamp", transaction.getTimestamp())
+                .put("lane", transaction.getLane())
+                .put("revenue", revenue)
+                .put("items", products);
+
+        byte demographic = transaction.getDemographic();
+        if (transaction.getCustomerNo() != Transaction.NO_CUSTOMER && demographic != Demographics.NONE) {
+            JSONArray ageGroup = new JSONArray();
+            if (Demographics.minAge(demographic) >= 0) ageGroup
+                    .put(Demographics.minAge(demographic))
+                    .put(Demographics.maxAge(demographic));
+            event
+                    .put("customerNo", transaction.getCustomerNo())
+                    .put("sex", SEXES[Demographics.sex(demographic)])
+                    .put("ageGroup", ageGroup);
+        }
+        return event;
+    }
+
+}
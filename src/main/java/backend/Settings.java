@@ -0,0 +1,114 @@
+package backend;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Backend settings, read from system properties with defaults suitable for a single store.
+ * ex. java -Dpos.journal.dir=/var/lib/pos/journal ...
+ */
+final class Settings {
+
+    private Settings () {}
+
+    /**
+     * @return Directory for the sales journal segments
+     */
+    static Path journalDirectory () {
+        return Paths.get(System.getProperty("pos.journal.dir", "data/journal"));
+    }
+
+    /**
+     * @return Size in bytes after which a new journal segment is started
+     */
+    static long journalSegmentSize () {
+        return Long.getLong("pos.journal.segmentSize", 64L * 1024 * 1024);
+    }
+
+    /**
+     * @return Milliseconds between syncing the journal to the disk, 0 to sync before a sale is acknowledged
+     */
+    static long journalSyncInterval () {
+        return Long.getLong("pos.journal.syncInterval", 50L);
+    }
+
+    /**
+     * @return Directory for the analytics snapshots
+     */
+    static Path snapshotDirectory () {
+        return Paths.get(System.getProperty("pos.snapshot.dir", "data/snapshots"));
+    }
+
+    /**
+     * @return Minutes between analytics snapshots, 0 to only take one on shutdown
+     */
+    static long snapshotInterval () {
+        return Long.getLong("pos.snapshot.interval", 10L);
+    }
+
+    /**
+     * @return true if /api/sale should queue sales and answer 202 instead of recording them on the request thread
+     */
+    static boolean asyncIngest () {
+        return Boolean.getBoolean("pos.ingest.async");
+    }
+
+    /**
+     * @return Maximum number of sales waiting in the ingestion queue
+     */
+    static int ingestQueueCapacity () {
+        return Integer.getInteger("pos.ingest.queueCapacity", 65536);
+    }
+
+    /**
+     * @return Maximum number of queued sales recorded together
+     */
+    static int ingestBatchSize () {
+        return Integer.getInteger("pos.ingest.batchSize", 512);
+    }
+
+    /**
+     * @return Number of threads recording queued sales
+     */
+    static int ingestConsumers () {
+        return Integer.getInteger("pos.ingest.consumers", 2);
+    }
+
+    /**
+     * @return File the ingestion pipeline appends sales it could not fully record to, one JSON object per line
+     */
+    static Path ingestDeadLetterFile () {
+        return Paths.get(System.getProperty("pos.ingest.deadLetter", "data/ingest-dead-letter.ndjson"));
+    }
+
+    /**
+     * @return Number of threads aggregating a query in parallel, 1 to run queries on the request thread only
+     */
+    static int queryParallelism () {
+        return Integer.getInteger("pos.query.parallelism", Runtime
+                .getRuntime()
+                .availableProcessors());
+    }
+
+    /**
+     * @return Number of rows below which a query, or a part of it, is aggregated on a single thread
+     */
+    static int queryParallelThreshold () {
+        return Integer.getInteger("pos.query.parallelThreshold", 65536);
+    }
+
+    /**
+     * @return Maximum total length in characters of the cached query results, 0 to disable caching
+     */
+    static long queryCacheSize () {
+        return Long.getLong("pos.query.cacheSize", 8L * 1024 * 1024);
+    }
+
+    /**
+     * @return Longest window in seconds for the live metrics
+     */
+    static int metricsWindow () {
+        return Integer.getInteger("pos.metrics.window", 60 * 60);
+    }
+
+}
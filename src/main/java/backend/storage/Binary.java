@@ -0,0 +1,69 @@
+package backend.storage;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers for writing primitive columns with a DataOutput and reading them back in bulk from a ByteBuffer
+ */
+public final class Binary {
+
+    private Binary () {}
+
+    public static void writeLongs (DataOutput out, long[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) out.writeLong(values[i]);
+    }
+
+    public static void writeInts (DataOutput out, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) out.writeInt(values[i]);
+    }
+
+    /**
+     * @param in       Source positioned at the values
+     * @param count    Number of values to read
+     * @param capacity Length of the returned array, at least count
+     * @return The values, followed by zeroes up to the capacity
+     */
+    public static long[] readLongs (ByteBuffer in, int count, int capacity) {
+        long[] values = new long[capacity];
+        in
+                .asLongBuffer()
+                .get(values, 0, count);
+        in.position(in.position() + count * Long.BYTES);
+        return values;
+    }
+
+    /**
+     * @param in       Source positioned at the values
+     * @param count    Number of values to read
+     * @param capacity Length of the returned array, at least count
+     * @return The values, followed by zeroes up to the capacity
+     */
+    public static int[] readInts (ByteBuffer in, int count, int capacity) {
+        int[] values = new int[capacity];
+        in
+                .asIntBuffer()
+                .get(values, 0, count);
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    public static void writeString (DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param in Source positioned at a string written by writeString
+     * @return The string
+     */
+    public static String readString (ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,71 @@
+package backend.storage;
+
+/**
+ * Encodes the sex and age bucket of a bonus customer at the time of a sale into a single byte,
+ * stored with each sold item so demographic queries don't need to look up customers.
+ */
+public final class Demographics {
+
+    /**
+     * Group of sales without a bonus customer
+     */
+    public static final byte NONE = -1;
+
+    public static final int MALE = 0;
+    public static final int FEMALE = 1;
+    public static final int UNSPECIFIED = 2;
+    private static final int SEXES = 3;
+
+    /**
+     * Width of an age bucket in years
+     */
+    public static final int BUCKET_YEARS = 10;
+    // Bucket of customers without a known age, the bucket before it holds everyone older than the others
+    private static final int UNKNOWN_AGE = 10;
+    private static final int AGE_BUCKETS = UNKNOWN_AGE + 1;
+
+    /**
+     * Number of distinct groups, groups are numbered from 0
+     */
+    public static final int GROUPS = SEXES * AGE_BUCKETS;
+
+    private Demographics () {}
+
+    /**
+     * @param sex Sex of the customer, as in the customer register
+     * @param age Age in years, negative if unknown
+     * @return The group
+     */
+    public static byte of (String sex, int age) {
+        int s = "MALE".equals(sex) ? MALE : "FEMALE".equals(sex) ? FEMALE : UNSPECIFIED;
+        int bucket = age < 0 ? UNKNOWN_AGE : Math.min(age / BUCKET_YEARS, UNKNOWN_AGE - 1);
+        return (byte) (s * AGE_BUCKETS + bucket);
+    }
+
+    /**
+     * @param group A group other than NONE
+     * @return MALE, FEMALE or UNSPECIFIED
+     */
+    public static int sex (int group) {
+        return group / AGE_BUCKETS;
+    }
+
+    /**
+     * @param group A group other than NONE
+     * @return Youngest age in the group, -1 if the age is unknown
+     */
+    public static int minAge (int group) {
+        int bucket = group % AGE_BUCKETS;
+        return bucket == UNKNOWN_AGE ? -1 : bucket * BUCKET_YEARS;
+    }
+
+    /**
+     * @param group A group other than NONE
+     * @return Oldest age in the group, -1 if the age is unknown. The oldest bucket also holds anyone older
+     */
+    public static int maxAge (int group) {
+        int bucket = group % AGE_BUCKETS;
+        return bucket == UNKNOWN_AGE ? -1 : (bucket + 1) * BUCKET_YEARS - 1;
+    }
+
+}
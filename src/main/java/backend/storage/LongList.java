@@ -0,0 +1,81 @@
+package backend.storage;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive longs
+ */
+public class LongList {
+
+    private long[] values;
+    private int size;
+
+    public LongList () {
+        this(8);
+    }
+
+    public LongList (int capacity) {
+        this.values = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * @param source List to copy
+     */
+    public LongList (LongList source) {
+        this.values = Arrays.copyOf(source.values, Math.max(source.size, 1));
+        this.size = source.size;
+    }
+
+    public void add (long value) {
+        if (this.size == this.values.length)
+            this.values = Arrays.copyOf(this.values, this.values.length * 2);
+        this.values[this.size++] = value;
+    }
+
+    public long get (int index) {
+        if (index >= this.size) throw new IndexOutOfBoundsException(index);
+        return this.values[index];
+    }
+
+    public int size () {
+        return this.size;
+    }
+
+    public boolean isEmpty () {
+        return this.size == 0;
+    }
+
+    /**
+     * @return A copy of the values
+     */
+    public long[] toArray () {
+        return Arrays.copyOf(this.values, this.size);
+    }
+
+    /**
+     * Writes the list in binary form, the counterpart of readFrom
+     *
+     * @param out Target to write to
+     * @throws IOException Writing failed
+     */
+    public void writeTo (DataOutput out) throws IOException {
+        out.writeInt(this.size);
+        Binary.writeLongs(out, this.values, this.size);
+    }
+
+    /**
+     * @param in Source written by writeTo
+     * @return The list read
+     */
+    public static LongList readFrom (ByteBuffer in) {
+        LongList list = new LongList(0);
+        int size = in.getInt();
+        list.values = Binary.readLongs(in, size, Math.max(size, 1));
+        list.size = size;
+        return list;
+    }
+
+}
@@ -0,0 +1,34 @@
+package backend.storage;
+
+/**
+ * The time span covered by a single sales partition
+ */
+public enum PartitionSize {
+
+    HOUR(60 * 60),
+    DAY(60 * 60 * 24);
+
+    private final long seconds;
+
+    PartitionSize (long seconds) {
+        this.seconds = seconds;
+    }
+
+    /**
+     * @return Length of the partition in seconds
+     */
+    public long getSeconds () {
+        return this.seconds;
+    }
+
+    /**
+     * Get the start of the partition a timestamp falls into
+     *
+     * @param timestamp UNIX timestamp
+     * @return UNIX timestamp of the partition start
+     */
+    public long floor (long timestamp) {
+        return timestamp - Math.floorMod(timestamp, this.seconds);
+    }
+
+}
@@ -0,0 +1,613 @@
+package backend.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of sale records, split into segment files.
+ *
+ * Appending threads don't touch the file. They queue their records and wait on a future, while a single writer
+ * thread takes everything queued, writes it with one call and completes the futures. Records are written to the file
+ * channel before their future completes, so they survive a crash of the process. Syncing to the disk is done by the
+ * writer for everything written since the last sync, once the sync interval has passed. With a sync interval of 0
+ * every group of records is synced before its futures complete.
+ *
+ * Each record is framed as: length (int), checksum (int), sequence number (long), payload.
+ *
+ * The journal is the full history of sales, so written records can be read back while it's open. Each segment keeps
+ * a sparse index of record positions, built the first time the segment is read, so a read doesn't scan from the start.
+ */
+public class SalesJournal implements Closeable {
+
+    private static final String SUFFIX = ".journal";
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    // Milliseconds between checks that the writer is still running, while waiting for a batch
+    private static final long WAIT_CHECK = 100;
+    // Number of records between the positions kept in the segment indexes
+    private static final int INDEX_INTERVAL = 64;
+
+    /**
+     * Callback for records read during a replay
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void handle (long sequence, byte[] payload) throws IOException;
+    }
+
+    /**
+     * Records appended together, written to the same segment in order
+     */
+    private static final class Batch {
+        private final List<byte[]> payloads;
+        private final int size;
+        // Sync to the disk before completing
+        private final boolean force;
+        // Completed with the sequence number of the first record once written
+        private final CompletableFuture<Long> written;
+        // Set by the writer
+        private long first;
+
+        private Batch (List<byte[]> payloads, boolean force) {
+            this.payloads = payloads;
+            this.force = force;
+            this.written = new CompletableFuture<>();
+            int size = 0;
+            for (byte[] payload : payloads) size += HEADER_SIZE + payload.length;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A segment file with a sparse index of its record positions, extended as reads reach further into the segment
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long first;
+        // Position of every INDEX_INTERVAL-th record, starting with the first
+        private long[] positions;
+        private int indexed;
+        // Sequence number and position of the first record not yet indexed
+        private long nextSequence;
+        private long nextPosition;
+
+        private Segment (Path path, long first) {
+            this.path = path;
+            this.first = first;
+            this.positions = new long[16];
+            this.nextSequence = first;
+        }
+
+        /**
+         * Finds where to start reading for a record, indexing the segment up to it
+         *
+         * @param sequence Sequence number of a written record in the segment
+         * @param in       The segment file
+         * @return Position of the closest record at or before the sequence number
+         * @throws IOException Reading failed
+         */
+        private synchronized long seek (long sequence, FileChannel in) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (this.nextSequence <= sequence) {
+                header.clear();
+                if (in.read(header, this.nextPosition) < HEADER_SIZE) break;
+                header.flip();
+                int length = header.getInt();
+                header.getInt();
+                long recorded = header.getLong();
+                if ((recorded - this.first) % INDEX_INTERVAL == 0) {
+                    if (this.indexed == this.positions.length)
+                        this.positions = Arrays.copyOf(this.positions, this.indexed * 2);
+                    this.positions[this.indexed++] = this.nextPosition;
+                }
+                this.nextSequence = recorded + 1;
+                this.nextPosition += HEADER_SIZE + length;
+            }
+            long entry = Math.min((sequence - this.first) / INDEX_INTERVAL, this.indexed - 1);
+            return entry < 0 ? 0 : this.positions[(int) entry];
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long syncInterval;
+    private final LinkedBlockingQueue<Batch> queue;
+    // Segments by the sequence number of their first record
+    private final ConcurrentSkipListMap<Long, Segment> segments;
+
+    // Only used by the writer once the journal is open
+    private FileChannel channel;
+    private volatile long nextSequence;
+    private volatile boolean closing;
+    private Thread writer;
+
+    /**
+     * @param directory    Directory holding the segment files
+     * @param segmentSize  Size in bytes after which a new segment is started
+     * @param syncInterval Milliseconds between syncs to the disk, 0 to sync before an append returns
+     */
+    public SalesJournal (Path directory, long segmentSize, long syncInterval) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncInterval = syncInterval;
+        this.queue = new LinkedBlockingQueue<>();
+        this.segments = new ConcurrentSkipListMap<>();
+        this.nextSequence = 1;
+    }
+
+    /**
+     * Reads every record in the journal and opens it for writing.
+     * A partially written record at the end of the last segment is cut off.
+     *
+     * @param handler Called for each record in order
+     * @return The number of records read
+     * @throws IOException The journal could not be read or a segment other than the last one is damaged
+     */
+    public long replay (RecordHandler handler) throws IOException {
+        return this.replay(0, handler);
+    }
+
+    /**
+     * Reads the records after a sequence number and opens the journal for writing.
+     * Segments holding only earlier records are skipped without being read.
+     *
+     * @param after   Sequence number of the last record already restored, ex. from a snapshot
+     * @param handler Called for each record after the sequence number, in order
+     * @return The number of records passed to the handler
+     * @throws IOException The journal could not be read or a segment other than the last one is damaged
+     */
+    public synchronized long replay (long after, RecordHandler handler) throws IOException {
+        if (this.writer != null) throw new IllegalStateException("Journal already open");
+        Files.createDirectories(this.directory);
+        this.nextSequence = after + 1;
+
+        List<Path> segments = this.segments();
+        long[] count = { 0 };
+        for (int index = 0; index < segments.size(); index++) {
+            boolean last = index == segments.size() - 1;
+            if (!last && firstSequence(segments.get(index + 1)) <= after + 1) continue;
+            this.replaySegment(segments.get(index), last, (long sequence, byte[] payload) -> {
+                if (sequence <= after) return;
+                handler.handle(sequence, payload);
+                count[0]++;
+            });
+        }
+
+        for (Path segment : segments)
+            this.segments.put(firstSequence(segment), new Segment(segment, firstSequence(segment)));
+        Path current = segments.isEmpty() ? this.segmentPath(this.nextSequence) : segments.get(segments.size() - 1);
+        this.segments.putIfAbsent(firstSequence(current), new Segment(current, firstSequence(current)));
+        this.channel = FileChannel.open(current, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.position(this.channel.size());
+
+        this.writer = new Thread(this::write, "sales-journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        return count[0];
+    }
+
+    private void replaySegment (Path segment, boolean last, RecordHandler handler) throws IOException {
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                header.clear();
+                if (in.read(header, position) < HEADER_SIZE) break;
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                long sequence = header.getLong();
+                if (length < 0 || position + HEADER_SIZE + length > size) break;
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                in.read(payload, position + HEADER_SIZE);
+                if (checksum(sequence, payload.array()) != checksum) break;
+
+                handler.handle(sequence, payload.array());
+                this.nextSequence = Math.max(this.nextSequence, sequence + 1);
+                position += HEADER_SIZE + length;
+            }
+            if (position < size) {
+                if (!last)
+                    throw new IOException(String.format("Damaged record in journal segment %s at %d", segment, position));
+                System.out.printf("Truncating torn journal tail in %s at %d%n", segment, position);
+                in.truncate(position);
+            }
+        }
+    }
+
+    /**
+     * Append a record to the journal
+     *
+     * @param payload The record data
+     * @return The sequence number of the record
+     * @throws IOException Writing failed
+     */
+    public long append (byte[] payload) throws IOException {
+        return this.append(List.of(payload));
+    }
+
+    /**
+     * Append several records to the journal in one write.
+     * Either all of the records are appended or none of them.
+     *
+     * @param payloads The record data
+     * @return The sequence number of the first record, the rest follow in order
+     * @throws IOException Writing failed, no record was appended
+     */
+    public long append (List<byte[]> payloads) throws IOException {
+        return this.submit(new Batch(payloads, false));
+    }
+
+    /**
+     * Force all written records to the disk
+     *
+     * @throws IOException Syncing failed
+     */
+    public void sync () throws IOException {
+        this.submit(new Batch(List.of(), true));
+    }
+
+    /**
+     * Queues a batch for the writer and waits until it's written.
+     * An interrupted caller only gives up while the batch is still queued. Once the writer has taken it, the batch
+     * gets sequence numbers that the caller has to hand on, so it waits for them and returns with the interrupt set.
+     *
+     * @param batch The batch
+     * @return The sequence number of the first record of the batch
+     * @throws IOException Writing failed or the journal is closed
+     * @throws InterruptedIOException Interrupted before the writer took the batch, nothing was written
+     */
+    private long submit (Batch batch) throws IOException {
+        this.ensureOpen();
+        this.queue.add(batch);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return batch.written.get(WAIT_CHECK, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ex) {
+                    // Queued after the writer stopped, nothing will write it
+                    if (!this.writer.isAlive()) batch.written.completeExceptionally(new IOException("Journal is closed"));
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                    if (this.queue.remove(batch))
+                        throw new InterruptedIOException("Interrupted while waiting for the journal");
+                }
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause());
+        } finally {
+            if (interrupted) Thread
+                    .currentThread()
+                    .interrupt();
+        }
+    }
+
+    /**
+     * Run by the writer thread: writes the queued batches in groups until the journal is closed
+     */
+    private void write () {
+        List<Batch> group = new ArrayList<>();
+        long synced = System.nanoTime();
+        boolean dirty = false;
+        while (!this.closing || !this.queue.isEmpty()) {
+            try {
+                if (dirty) {
+                    long wait = this.syncInterval - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - synced);
+                    Batch first = this.queue.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                    if (first != null) group.add(first);
+                } else group.add(this.queue.take());
+                this.queue.drainTo(group);
+                dirty |= this.writeGroup(group);
+
+                boolean force = this.syncInterval == 0 || System.nanoTime() - synced >= TimeUnit.MILLISECONDS.toNanos(this.syncInterval);
+                for (Batch batch : group) force |= batch.force;
+                if (dirty && force) {
+                    dirty = false;
+                    synced = System.nanoTime();
+                    this.channel.force(false);
+                }
+            } catch (InterruptedException ex) {
+                break;
+            } catch (IOException ex) {
+                // Written but not synced, as if the machine crashed before the next sync
+                System.out.println("Failed syncing the sales journal: " + ex.getMessage());
+            } finally {
+                for (Batch batch : group) batch.written.complete(batch.first);
+                group.clear();
+            }
+        }
+        try {
+            this.channel.force(false);
+            this.channel.close();
+        } catch (IOException ex) {
+            System.out.println("Failed closing the sales journal: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes a group of batches with one write per segment. Batches that could not be written are failed and removed
+     * from the group, their sequence numbers are given to the next records.
+     *
+     * @param group Batches to write, in order
+     * @return true if anything was written
+     */
+    private boolean writeGroup (List<Batch> group) {
+        boolean written = false;
+        int from = 0;
+        try {
+            while (from < group.size()) {
+                // The segment size is a soft limit, a batch is never split over two segments
+                long start = this.channel.position();
+                if (start > 0 && group.get(from).size > 0 && start + group.get(from).size > this.segmentSize) {
+                    try {
+                        this.roll(this.nextSequence);
+                    } catch (IOException ex) {
+                        // The current segment is still open, keep writing to it and try again with the next group
+                        System.out.println("Failed starting a new journal segment: " + ex.getMessage());
+                    }
+                    start = this.channel.position();
+                }
+                int to = from + 1;
+                long size = group.get(from).size;
+                while (to < group.size() && start + size + group.get(to).size <= this.segmentSize) size += group.get(to++).size;
+
+                ByteBuffer frames = ByteBuffer.allocate(Math.toIntExact(size));
+                long sequence = this.nextSequence;
+                for (Batch batch : group.subList(from, to)) {
+                    batch.first = sequence;
+                    for (byte[] payload : batch.payloads) {
+                        frames.putInt(payload.length);
+                        frames.putInt(checksum(sequence, payload));
+                        frames.putLong(sequence);
+                        frames.put(payload);
+                        sequence++;
+                    }
+                }
+                frames.flip();
+
+                try {
+                    while (frames.hasRemaining()) this.channel.write(frames);
+                } catch (IOException ex) {
+                    // Drop the partially written frames so the sequence numbers can be reused
+                    this.channel.truncate(start);
+                    this.channel.position(start);
+                    throw ex;
+                }
+                this.nextSequence = sequence;
+                written = true;
+                from = to;
+            }
+        } catch (IOException ex) {
+            List<Batch> failed = group.subList(from, group.size());
+            for (Batch batch : failed) batch.written.completeExceptionally(ex);
+            failed.clear();
+        }
+        return written;
+    }
+
+    /**
+     * Starts a new segment. The new file is opened before the current one is closed, so if starting the segment fails
+     * the current one can still be written to
+     *
+     * @param sequence Sequence number of the first record of the new segment
+     * @throws IOException Opening the new segment or syncing the current one failed, the current one is kept
+     */
+    private void roll (long sequence) throws IOException {
+        Path path = this.segmentPath(sequence);
+        FileChannel next = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            this.channel.force(false);
+            this.syncDirectory();
+        } catch (IOException ex) {
+            next.close();
+            Files.delete(path);
+            throw ex;
+        }
+        FileChannel previous = this.channel;
+        this.channel = next;
+        this.segments.put(sequence, new Segment(path, sequence));
+        try {
+            previous.close();
+        } catch (IOException ex) {
+            // Already synced, nothing is lost
+            System.out.println("Failed closing a journal segment: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Syncs the directory, so a new segment file is still there after a crash.
+     * Some platforms can't open a directory, there the file is as durable as the file system makes it
+     *
+     * @throws IOException Syncing failed
+     */
+    private void syncDirectory () throws IOException {
+        FileChannel directory;
+        try {
+            directory = FileChannel.open(this.directory, StandardOpenOption.READ);
+        } catch (IOException ex) {
+            // Not supported on this platform
+            return;
+        }
+        try (directory) {
+            directory.force(true);
+        }
+    }
+
+    /**
+     * Reads back written records within a range of sequence numbers. Can be called while records are appended,
+     * records not yet written when the read starts are left out.
+     *
+     * @param after   Sequence number after which to start
+     * @param until   Sequence number of the last record to read, inclusive
+     * @param handler Called for each record in order
+     * @throws IOException Reading failed or a record is damaged
+     */
+    public void read (long after, long until, RecordHandler handler) throws IOException {
+        this.ensureReplayed();
+        long last = Math.min(until, this.nextSequence - 1);
+        long sequence = after + 1;
+        while (sequence <= last) {
+            Map.Entry<Long, Segment> segment = this.segments.floorEntry(sequence);
+            if (segment == null) segment = this.segments.ceilingEntry(sequence);
+            if (segment == null) return;
+            Long following = this.segments.higherKey(segment.getKey());
+            long end = following == null ? last : Math.min(last, following - 1);
+            try (FileChannel in = FileChannel.open(segment.getValue().path, StandardOpenOption.READ)) {
+                readSegment(in, segment.getValue(), Math.max(sequence, segment.getKey()), end, handler);
+            }
+            if (following == null) return;
+            sequence = Math.max(end + 1, following);
+        }
+    }
+
+    /**
+     * Reads back written records by their sequence numbers, ex. the sales of a single customer
+     *
+     * @param sequences Sequence numbers of the records in ascending order
+     * @param handler   Called for each record in order
+     * @throws IOException Reading failed or a record is damaged
+     */
+    public void read (long[] sequences, RecordHandler handler) throws IOException {
+        this.ensureReplayed();
+        long last = this.nextSequence - 1;
+        Segment current = null;
+        FileChannel in = null;
+        try {
+            for (long sequence : sequences) {
+                if (sequence > last) break;
+                Map.Entry<Long, Segment> segment = this.segments.floorEntry(sequence);
+                if (segment == null) continue;
+                if (segment.getValue() != current) {
+                    if (in != null) in.close();
+                    current = segment.getValue();
+                    in = FileChannel.open(current.path, StandardOpenOption.READ);
+                }
+                readSegment(in, current, sequence, sequence, handler);
+            }
+        } finally {
+            if (in != null) in.close();
+        }
+    }
+
+    /**
+     * @param in      The segment file
+     * @param segment The segment
+     * @param from    Sequence number of the first record to read
+     * @param until   Sequence number of the last record to read, inclusive. Must have been written
+     * @param handler Called for each record in order
+     * @throws IOException Reading failed or a record is damaged
+     */
+    private static void readSegment (FileChannel in, Segment segment, long from, long until, RecordHandler handler) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long position = segment.seek(from, in);
+        while (true) {
+            header.clear();
+            if (in.read(header, position) < HEADER_SIZE) return;
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            long sequence = header.getLong();
+            if (sequence > until) return;
+            if (sequence >= from) {
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                while (payload.hasRemaining())
+                    if (in.read(payload, position + HEADER_SIZE + payload.position()) < 0)
+                        throw new IOException(String.format("Truncated record %d in journal segment %s", sequence, segment.path));
+                if (checksum(sequence, payload.array()) != checksum)
+                    throw new IOException(String.format("Damaged record %d in journal segment %s", sequence, segment.path));
+                handler.handle(sequence, payload.array());
+            }
+            position += HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * @return The sequence number the next record will get
+     */
+    public long getNextSequence () {
+        return this.nextSequence;
+    }
+
+    /**
+     * Writes and syncs the records already queued, then stops the writer. Records can't be appended afterwards
+     *
+     * @throws IOException Interrupted while waiting for the writer
+     */
+    @Override
+    public synchronized void close () throws IOException {
+        if (this.writer == null || this.closing) return;
+        this.closing = true;
+        // Wakes the writer up
+        this.queue.add(new Batch(List.of(), true));
+        try {
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread
+                    .currentThread()
+                    .interrupt();
+            throw new InterruptedIOException("Interrupted while closing the journal");
+        }
+    }
+
+    private void ensureReplayed () {
+        if (this.writer == null) throw new IllegalStateException("Journal must be replayed before reading");
+    }
+
+    private void ensureOpen () {
+        if (this.writer == null) throw new IllegalStateException("Journal must be replayed before appending");
+        if (this.closing) throw new IllegalStateException("Journal is closed");
+    }
+
+    private List<Path> segments () throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+            for (Path segment : stream) segments.add(segment);
+        }
+        // Names are zero padded sequence numbers, so they sort chronologically
+        segments.sort(null);
+        return segments;
+    }
+
+    private static long firstSequence (Path segment) {
+        String name = segment
+                .getFileName()
+                .toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private Path segmentPath (long firstSequence) {
+        return this.directory.resolve(String.format("%020d%s", firstSequence, SUFFIX));
+    }
+
+    private static int checksum (long sequence, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer
+                .allocate(8)
+                .putLong(sequence)
+                .array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+}
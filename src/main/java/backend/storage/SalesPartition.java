@@ -0,0 +1,404 @@
+package backend.storage;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the sold items of a single time span in primitive columns.
+ * Each row is one sold item, the rows are kept sorted by timestamp so ranges can be found with a binary search.
+ * Late items are appended after the sorted rows and merged into place by settle, once per batch of sales.
+ */
+public class SalesPartition {
+
+    private static final int INITIAL_CAPACITY = 64;
+    // Number of barcodes tracked by the heavy hitter sketch
+    private static final int SKETCH_CAPACITY = 1024;
+    private static final int HOUR = 60 * 60;
+
+    private final long start;
+    private final long end;
+    private int size;
+    // Number of rows from the start that are sorted, the rows after them are late and wait for settle
+    private int sorted;
+
+    private long[] timestamps;
+    private long[] sequences;
+    private int[] barcodes;
+    private int[] prices;
+    private int[] vatRates;
+    private int[] customers;
+    private int[] lanes;
+    private byte[] demographics;
+
+    private final SpaceSaving popular;
+    // HashMap<barcode, items sold to bonus customers by demographic group>
+    private final HashMap<Integer, int[]> byDemographic;
+    // HashMap<VAT rate in basis points, [gross cents, VAT cents] for each hour of the partition>
+    private final HashMap<Integer, long[]> revenueByVat;
+    // Distinct bonus customers, in total and by the keywords of the products they bought
+    private final HyperLogLog distinctCustomers;
+    private final HashMap<String, HyperLogLog> distinctCustomersByKeyword;
+
+    SalesPartition (long start, long end) {
+        this.start = start;
+        this.end = end;
+        this.timestamps = new long[INITIAL_CAPACITY];
+        this.sequences = new long[INITIAL_CAPACITY];
+        this.barcodes = new int[INITIAL_CAPACITY];
+        this.prices = new int[INITIAL_CAPACITY];
+        this.vatRates = new int[INITIAL_CAPACITY];
+        this.customers = new int[INITIAL_CAPACITY];
+        this.lanes = new int[INITIAL_CAPACITY];
+        this.demographics = new byte[INITIAL_CAPACITY];
+        this.popular = new SpaceSaving(SKETCH_CAPACITY);
+        this.byDemographic = new HashMap<>();
+        this.revenueByVat = new HashMap<>();
+        this.distinctCustomers = new HyperLogLog();
+        this.distinctCustomersByKeyword = new HashMap<>();
+    }
+
+    /**
+     * Copies the rows and rollups of a partition, ex. to write them out without holding a lock
+     *
+     * @param source Partition to copy
+     */
+    SalesPartition (SalesPartition source) {
+        this.start = source.start;
+        this.end = source.end;
+        this.size = source.size;
+        this.sorted = source.sorted;
+        int capacity = Math.max(source.size, 1);
+        this.timestamps = Arrays.copyOf(source.timestamps, capacity);
+        this.sequences = Arrays.copyOf(source.sequences, capacity);
+        this.barcodes = Arrays.copyOf(source.barcodes, capacity);
+        this.prices = Arrays.copyOf(source.prices, capacity);
+        this.vatRates = Arrays.copyOf(source.vatRates, capacity);
+        this.customers = Arrays.copyOf(source.customers, capacity);
+        this.lanes = Arrays.copyOf(source.lanes, capacity);
+        this.demographics = Arrays.copyOf(source.demographics, capacity);
+        this.popular = new SpaceSaving(source.popular);
+        this.byDemographic = new HashMap<>(source.byDemographic.size() * 2);
+        source.byDemographic.forEach((Integer barcode, int[] groups) -> this.byDemographic.put(barcode, groups.clone()));
+        this.revenueByVat = new HashMap<>(source.revenueByVat.size() * 2);
+        source.revenueByVat.forEach((Integer rate, long[] hours) -> this.revenueByVat.put(rate, hours.clone()));
+        this.distinctCustomers = new HyperLogLog(source.distinctCustomers);
+        this.distinctCustomersByKeyword = new HashMap<>(source.distinctCustomersByKeyword.size() * 2);
+        source.distinctCustomersByKeyword.forEach((String keyword, HyperLogLog sketch) -> this.distinctCustomersByKeyword.put(keyword, new HyperLogLog(sketch)));
+    }
+
+    /**
+     * Writes the partition in binary form, the counterpart of readFrom
+     *
+     * @param out Target to write to
+     * @throws IOException Writing failed
+     */
+    void writeTo (DataOutput out) throws IOException {
+        out.writeLong(this.start);
+        out.writeLong(this.end);
+        out.writeInt(this.size);
+        Binary.writeLongs(out, this.timestamps, this.size);
+        Binary.writeLongs(out, this.sequences, this.size);
+        Binary.writeInts(out, this.barcodes, this.size);
+        Binary.writeInts(out, this.prices, this.size);
+        Binary.writeInts(out, this.vatRates, this.size);
+        Binary.writeInts(out, this.customers, this.size);
+        Binary.writeInts(out, this.lanes, this.size);
+        out.write(this.demographics, 0, this.size);
+        this.popular.writeTo(out);
+        this.distinctCustomers.writeTo(out);
+        out.writeInt(this.distinctCustomersByKeyword.size());
+        for (Map.Entry<String, HyperLogLog> keyword : this.distinctCustomersByKeyword.entrySet()) {
+            Binary.writeString(out, keyword.getKey());
+            keyword
+                    .getValue()
+                    .writeTo(out);
+        }
+    }
+
+    /**
+     * @param in Source written by writeTo
+     * @return The partition read
+     */
+    static SalesPartition readFrom (ByteBuffer in) {
+        SalesPartition partition = new SalesPartition(in.getLong(), in.getLong());
+        int size = in.getInt();
+        int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(size, 1)) << 1);
+        partition.size = size;
+        partition.sorted = size;
+        partition.timestamps = Binary.readLongs(in, size, capacity);
+        partition.sequences = Binary.readLongs(in, size, capacity);
+        partition.barcodes = Binary.readInts(in, size, capacity);
+        partition.prices = Binary.readInts(in, size, capacity);
+        partition.vatRates = Binary.readInts(in, size, capacity);
+        partition.customers = Binary.readInts(in, size, capacity);
+        partition.lanes = Binary.readInts(in, size, capacity);
+        partition.demographics = new byte[capacity];
+        in.get(partition.demographics, 0, size);
+        partition.popular.readFrom(in);
+        partition.distinctCustomers.readFrom(in);
+        int keywords = in.getInt();
+        for (int i = 0; i < keywords; i++) {
+            String keyword = Binary.readString(in);
+            HyperLogLog sketch = new HyperLogLog();
+            sketch.readFrom(in);
+            partition.distinctCustomersByKeyword.put(keyword, sketch);
+        }
+        // The rollups are derived from the columns, so they aren't written
+        for (int row = 0; row < size; row++) {
+            partition.countDemographic(row);
+            partition.countRevenue(row);
+        }
+        return partition;
+    }
+
+    /**
+     * Add a sold item to the end of the partition.
+     * Items normally arrive in time order. Once a late item arrives, the partition has to be settled before reading.
+     *
+     * @param timestamp   UNIX timestamp of the sale
+     * @param sequence    Sequence number of the sale
+     * @param barcode     Barcode of the sold product
+     * @param price       Price paid in cents, including VAT
+     * @param vatRate     VAT rate in basis points, 2400 for 24%
+     * @param customer    Customer number, or {@link SalesStore#NO_CUSTOMER}
+     * @param lane        The lane the sale was made at
+     * @param demographic Sex and age group of the customer, or {@link Demographics#NONE}
+     */
+    void append (long timestamp, long sequence, int barcode, int price, int vatRate, int customer, int lane, byte demographic) {
+        if (this.size == this.timestamps.length) this.grow();
+        int row = this.size;
+        if (this.sorted == row && (row == 0 || this.timestamps[row - 1] <= timestamp)) this.sorted++;
+        this.timestamps[row] = timestamp;
+        this.sequences[row] = sequence;
+        this.barcodes[row] = barcode;
+        this.prices[row] = price;
+        this.vatRates[row] = vatRate;
+        this.customers[row] = customer;
+        this.lanes[row] = lane;
+        this.demographics[row] = demographic;
+        this.size++;
+        this.popular.add(barcode);
+        this.countDemographic(row);
+        this.countRevenue(row);
+    }
+
+    /**
+     * @return true if all rows are in time order, false if late rows wait for settle
+     */
+    boolean isSorted () {
+        return this.sorted == this.size;
+    }
+
+    /**
+     * Moves the late rows into place. The late rows are sorted by timestamp and merged with the sorted rows from the
+     * back, so each row moves at most once. Rows with the same timestamp stay in the order they were appended.
+     */
+    void settle () {
+        if (this.sorted == this.size) return;
+        int late = this.size - this.sorted;
+        // Timestamp within the partition above the index among the late rows, so sorting keeps equal ones in order
+        long[] order = new long[late];
+        for (int i = 0; i < late; i++) order[i] = (this.timestamps[this.sorted + i] - this.start) << 32 | i;
+        Arrays.sort(order);
+
+        long[] timestamps = new long[late];
+        long[] sequences = new long[late];
+        int[] barcodes = new int[late];
+        int[] prices = new int[late];
+        int[] vatRates = new int[late];
+        int[] customers = new int[late];
+        int[] lanes = new int[late];
+        byte[] demographics = new byte[late];
+        for (int i = 0; i < late; i++) {
+            int row = this.sorted + (int) order[i];
+            timestamps[i] = this.timestamps[row];
+            sequences[i] = this.sequences[row];
+            barcodes[i] = this.barcodes[row];
+            prices[i] = this.prices[row];
+            vatRates[i] = this.vatRates[row];
+            customers[i] = this.customers[row];
+            lanes[i] = this.lanes[row];
+            demographics[i] = this.demographics[row];
+        }
+
+        int from = this.sorted - 1;
+        int to = this.size - 1;
+        for (int i = late - 1; i >= 0; i--, to--) {
+            // Earlier rows with the same timestamp stay in front
+            while (from >= 0 && this.timestamps[from] > timestamps[i]) this.move(from--, to--);
+            this.timestamps[to] = timestamps[i];
+            this.sequences[to] = sequences[i];
+            this.barcodes[to] = barcodes[i];
+            this.prices[to] = prices[i];
+            this.vatRates[to] = vatRates[i];
+            this.customers[to] = customers[i];
+            this.lanes[to] = lanes[i];
+            this.demographics[to] = demographics[i];
+        }
+        this.sorted = this.size;
+    }
+
+    private void move (int from, int to) {
+        this.timestamps[to] = this.timestamps[from];
+        this.sequences[to] = this.sequences[from];
+        this.barcodes[to] = this.barcodes[from];
+        this.prices[to] = this.prices[from];
+        this.vatRates[to] = this.vatRates[from];
+        this.customers[to] = this.customers[from];
+        this.lanes[to] = this.lanes[from];
+        this.demographics[to] = this.demographics[from];
+    }
+
+    /**
+     * Count a bonus customer making a sale in the partition
+     *
+     * @param customer Customer number
+     */
+    void countCustomer (int customer) {
+        this.distinctCustomers.add(customer);
+    }
+
+    /**
+     * Count a bonus customer buying products with a keyword in the partition
+     *
+     * @param customer Customer number
+     * @param keyword  Keyword of the products, normalized by the store
+     */
+    void countCustomer (int customer, String keyword) {
+        this.distinctCustomersByKeyword
+                .computeIfAbsent(keyword, (String key) -> new HyperLogLog())
+                .add(customer);
+    }
+
+    private void countRevenue (int row) {
+        long[] hours = this.revenueByVat.computeIfAbsent(this.vatRates[row], (Integer rate) -> new long[this.hours() * 2]);
+        int hour = (int) ((this.timestamps[row] - this.start) / HOUR);
+        hours[hour * 2] += this.prices[row];
+        hours[hour * 2 + 1] += this.getVat(row);
+    }
+
+    private void countDemographic (int row) {
+        byte demographic = this.demographics[row];
+        if (demographic == Demographics.NONE) return;
+        this.byDemographic.computeIfAbsent(this.barcodes[row], (Integer barcode) -> new int[Demographics.GROUPS])[demographic]++;
+    }
+
+    /**
+     * @param timestamp UNIX timestamp
+     * @return Index of the first row with a timestamp at or after the given one
+     */
+    public int lowerBound (long timestamp) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.timestamps[middle] < timestamp) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param timestamp UNIX timestamp
+     * @return Index of the first row with a timestamp after the given one
+     */
+    public int upperBound (long timestamp) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.timestamps[middle] <= timestamp) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private void grow () {
+        int capacity = this.timestamps.length * 2;
+        this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+        this.sequences = Arrays.copyOf(this.sequences, capacity);
+        this.barcodes = Arrays.copyOf(this.barcodes, capacity);
+        this.prices = Arrays.copyOf(this.prices, capacity);
+        this.vatRates = Arrays.copyOf(this.vatRates, capacity);
+        this.customers = Arrays.copyOf(this.customers, capacity);
+        this.lanes = Arrays.copyOf(this.lanes, capacity);
+        this.demographics = Arrays.copyOf(this.demographics, capacity);
+    }
+
+    /**
+     * @return UNIX timestamp of the first second in the partition
+     */
+    public long getStart () {return this.start;}
+
+    /**
+     * @return UNIX timestamp of the first second after the partition
+     */
+    public long getEnd () {return this.end;}
+
+    /**
+     * @return Number of rows in the partition
+     */
+    public int size () {return this.size;}
+
+    /**
+     * @return Sketch of the most sold barcodes in the partition
+     */
+    public SpaceSaving getPopular () {return this.popular;}
+
+    /**
+     * @return Items sold to bonus customers by demographic group, mapped by barcode. Must not be modified
+     */
+    public HashMap<Integer, int[]> getByDemographic () {return this.byDemographic;}
+
+    /**
+     * @return Number of whole hours in the partition, at least one
+     */
+    public int hours () {return (int) Math.max((this.end - this.start) / HOUR, 1);}
+
+    /**
+     * @return Gross and VAT cents at each VAT rate in basis points, as [gross, VAT] pairs indexed by hour.
+     * Must not be modified
+     */
+    public HashMap<Integer, long[]> getRevenueByVat () {return this.revenueByVat;}
+
+    /**
+     * @return Sketch of the distinct bonus customers in the partition. Must not be modified
+     */
+    public HyperLogLog getDistinctCustomers () {return this.distinctCustomers;}
+
+    /**
+     * @param keyword Product keyword
+     * @return Sketch of the distinct bonus customers buying products with the keyword, null if there are none.
+     * Must not be modified
+     */
+    public HyperLogLog getDistinctCustomers (String keyword) {return this.distinctCustomersByKeyword.get(keyword);}
+
+    public long getTimestamp (int row) {return this.timestamps[row];}
+
+    public long getSequence (int row) {return this.sequences[row];}
+
+    public int getBarcode (int row) {return this.barcodes[row];}
+
+    public int getPrice (int row) {return this.prices[row];}
+
+    public int getVatRate (int row) {return this.vatRates[row];}
+
+    /**
+     * @param row Row index
+     * @return The VAT included in the price in cents, rounded to the nearest cent
+     */
+    public int getVat (int row) {
+        return (int) Math.round(this.prices[row] * (double) this.vatRates[row] / (10000 + this.vatRates[row]));
+    }
+
+    public int getCustomer (int row) {return this.customers[row];}
+
+    public int getLane (int row) {return this.lanes[row];}
+
+    public byte getDemographic (int row) {return this.demographics[row];}
+
+}
@@ -0,0 +1,400 @@
+package backend.storage;
+
+import backend.structures.Transaction;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Column oriented store for sold items, split into partitions by time.
+ * Range queries only touch the partitions overlapping the range,
+ * and binary search for the first and last row within the partitions at the range edges.
+ */
+public class SalesStore {
+
+    /**
+     * Customer number used for sales without a bonus customer
+     */
+    public static final int NO_CUSTOMER = Transaction.NO_CUSTOMER;
+
+    private final PartitionSize partitionSize;
+    private final TreeMap<Long, SalesPartition> partitions;
+    // Partitions with late rows waiting for settle
+    private final ArrayList<SalesPartition> unsorted;
+
+    /**
+     * Callback for visiting rows during a scan
+     */
+    @FunctionalInterface
+    public interface RowVisitor {
+        void visit (SalesPartition partition, int row);
+    }
+
+    /**
+     * A run of consecutive rows within a partition
+     */
+    public static final class Slice {
+
+        private final SalesPartition partition;
+        private final int first;
+        private final int last;
+
+        /**
+         * @param partition The partition holding the rows
+         * @param first     First row, inclusive
+         * @param last      Last row, exclusive
+         */
+        public Slice (SalesPartition partition, int first, int last) {
+            this.partition = partition;
+            this.first = first;
+            this.last = last;
+        }
+
+        /**
+         * @param visitor Called for each row in the slice
+         */
+        public void scan (RowVisitor visitor) {
+            for (int row = this.first; row < this.last; row++)
+                visitor.visit(this.partition, row);
+        }
+
+        public SalesPartition getPartition () {return this.partition;}
+
+        public int getFirst () {return this.first;}
+
+        public int getLast () {return this.last;}
+
+        public int size () {return this.last - this.first;}
+
+    }
+
+    public SalesStore (PartitionSize partitionSize) {
+        this.partitionSize = partitionSize;
+        this.partitions = new TreeMap<>();
+        this.unsorted = new ArrayList<>();
+    }
+
+    /**
+     * Copies all partitions of a store, ex. to write them out without holding a lock
+     *
+     * @param source Store to copy
+     */
+    public SalesStore (SalesStore source) {
+        this.partitionSize = source.partitionSize;
+        this.partitions = new TreeMap<>();
+        this.unsorted = new ArrayList<>();
+        for (SalesPartition partition : source.partitions.values())
+            this.partitions.put(partition.getStart(), new SalesPartition(partition));
+    }
+
+    /**
+     * Add a sold item to the partition covering its timestamp.
+     * Items older than the latest one in their partition are only moved into place by settle, which must be called
+     * before reading. Appending a batch of sales and settling once costs a sort of the late items and a single merge.
+     *
+     * @param timestamp   UNIX timestamp of the sale
+     * @param sequence    Sequence number of the sale
+     * @param barcode     Barcode of the sold product
+     * @param price       Price paid in cents, including VAT
+     * @param vatRate     VAT rate in basis points, 2400 for 24%
+     * @param customer    Customer number, or {@link #NO_CUSTOMER}
+     * @param lane        The lane the sale was made at
+     * @param demographic Sex and age group of the customer, or {@link Demographics#NONE}
+     */
+    public void append (long timestamp, long sequence, int barcode, int price, int vatRate, int customer, int lane, byte demographic) {
+        SalesPartition partition = this.partitionFor(timestamp);
+        boolean sorted = partition.isSorted();
+        partition.append(timestamp, sequence, barcode, price, vatRate, customer, lane, demographic);
+        if (sorted && !partition.isSorted()) this.unsorted.add(partition);
+    }
+
+    /**
+     * Moves the items appended out of time order into place
+     */
+    public void settle () {
+        for (SalesPartition partition : this.unsorted) partition.settle();
+        this.unsorted.clear();
+    }
+
+    private SalesPartition partitionFor (long timestamp) {
+        long start = this.partitionSize.floor(timestamp);
+        SalesPartition partition = this.partitions.get(start);
+        if (partition == null) {
+            partition = new SalesPartition(start, start + this.partitionSize.getSeconds());
+            this.partitions.put(start, partition);
+        }
+        return partition;
+    }
+
+    /**
+     * Count a bonus customer making a sale, for estimating distinct customers
+     *
+     * @param timestamp UNIX timestamp of the sale
+     * @param customer  Customer number
+     * @param keywords  Distinct keywords of the products sold, matched regardless of case
+     */
+    public void countCustomer (long timestamp, int customer, Collection<String> keywords) {
+        SalesPartition partition = this.partitionFor(timestamp);
+        partition.countCustomer(customer);
+        for (String keyword : keywords) partition.countCustomer(customer, SalesStore.normalize(keyword));
+    }
+
+    /**
+     * @param keyword A product keyword
+     * @return The keyword as the customers buying it are counted by
+     */
+    private static String normalize (String keyword) {
+        return keyword.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get the partitions overlapping a time range
+     *
+     * @param from  UNIX timestamp for the start of the range, inclusive
+     * @param until UNIX timestamp for the end of the range, exclusive
+     * @return The overlapping partitions in chronological order
+     */
+    public Collection<SalesPartition> partitions (long from, long until) {
+        if (from >= until) return Collections.emptyList();
+        return this.partitions
+                .subMap(this.partitionSize.floor(from), true, until, false)
+                .values();
+    }
+
+    /**
+     * @return All partitions in chronological order
+     */
+    public Collection<SalesPartition> partitions () {
+        return this.partitions.values();
+    }
+
+    /**
+     * Visit every row with a timestamp within a time range
+     *
+     * @param from    UNIX timestamp for the start of the range, inclusive
+     * @param until   UNIX timestamp for the end of the range, exclusive
+     * @param visitor Called for each matching row
+     */
+    public void scan (long from, long until, RowVisitor visitor) {
+        for (Slice slice : this.slices(from, until))
+            slice.scan(visitor);
+    }
+
+    /**
+     * Get the rows within a time range, as one slice per overlapping partition
+     *
+     * @param from  UNIX timestamp for the start of the range, inclusive
+     * @param until UNIX timestamp for the end of the range, exclusive
+     * @return The non-empty slices in chronological order
+     */
+    public List<Slice> slices (long from, long until) {
+        List<Slice> slices = new ArrayList<>();
+        for (SalesPartition partition : this.partitions(from, until)) {
+            int first = partition.getStart() >= from ? 0 : partition.lowerBound(from);
+            int last = partition.getEnd() <= until ? partition.size() : partition.lowerBound(until);
+            if (first < last) slices.add(new Slice(partition, first, last));
+        }
+        return slices;
+    }
+
+    /**
+     * Visit every row in the store
+     *
+     * @param visitor Called for each row
+     */
+    public void scan (RowVisitor visitor) {
+        for (SalesPartition partition : this.partitions.values())
+            for (int row = 0; row < partition.size(); row++)
+                visitor.visit(partition, row);
+    }
+
+    /**
+     * Get the most sold barcodes within a time range.
+     * Candidates are taken from the heavy hitter sketches of the overlapping partitions,
+     * then counted exactly. Partitions fully inside the range with exact sketches are not scanned.
+     *
+     * @param from  UNIX timestamp for the start of the range, inclusive
+     * @param until UNIX timestamp for the end of the range, exclusive
+     * @param k     Maximum number of barcodes to return
+     * @return Sold amounts mapped by barcode, most sold first
+     */
+    public LinkedHashMap<Integer, Long> top (long from, long until, int k) {
+        Collection<SalesPartition> partitions = this.partitions(from, until);
+
+        // HashMap<barcode, exact count within the range>
+        HashMap<Integer, long[]> candidates = new HashMap<>();
+        for (SalesPartition partition : partitions) {
+            SpaceSaving sketch = partition.getPopular();
+            for (int i = 0; i < sketch.size(); i++)
+                candidates.putIfAbsent(sketch.key(i), new long[1]);
+        }
+
+        for (SalesPartition partition : partitions) {
+            SpaceSaving sketch = partition.getPopular();
+            boolean covered = partition.getStart() >= from && partition.getEnd() <= until;
+            if (covered && sketch.isExact()) {
+                for (int i = 0; i < sketch.size(); i++)
+                    candidates.get(sketch.key(i))[0] += sketch.count(sketch.key(i));
+                continue;
+            }
+            int first = partition.getStart() >= from ? 0 : partition.lowerBound(from);
+            int last = partition.getEnd() <= until ? partition.size() : partition.lowerBound(until);
+            for (int row = first; row < last; row++) {
+                long[] count = candidates.get(partition.getBarcode(row));
+                if (count != null) count[0]++;
+            }
+        }
+
+        List<Map.Entry<Integer, long[]>> ranked = new ArrayList<>(candidates.entrySet());
+        ranked.removeIf((Map.Entry<Integer, long[]> entry) -> entry.getValue()[0] == 0);
+        ranked.sort((Map.Entry<Integer, long[]> a, Map.Entry<Integer, long[]> b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+
+        LinkedHashMap<Integer, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<Integer, long[]> entry : ranked.subList(0, Math.min(k, ranked.size())))
+            top.put(entry.getKey(), entry.getValue()[0]);
+        return top;
+    }
+
+    /**
+     * Sum up revenue within a time range by time bucket and VAT rate.
+     * Whole hours inside the range are taken from the hourly rollups of the partitions,
+     * only the rows of the hours cut by the range edges are scanned.
+     *
+     * @param from   UNIX timestamp for the start of the range, inclusive
+     * @param until  UNIX timestamp for the end of the range, exclusive
+     * @param bucket Size of the time buckets, at least an hour
+     * @return [gross cents, VAT cents] by VAT rate in basis points, mapped by the start of the bucket in time order
+     */
+    public TreeMap<Long, HashMap<Integer, long[]>> revenue (long from, long until, PartitionSize bucket) {
+        TreeMap<Long, HashMap<Integer, long[]>> revenue = new TreeMap<>();
+        for (SalesPartition partition : this.partitions(from, until)) {
+            long hourLength = (partition.getEnd() - partition.getStart()) / partition.hours();
+            for (int hour = 0; hour < partition.hours(); hour++) {
+                long hourStart = partition.getStart() + hour * hourLength;
+                long hourEnd = hourStart + hourLength;
+                if (hourEnd <= from || hourStart >= until) continue;
+                HashMap<Integer, long[]> rates = revenue.computeIfAbsent(bucket.floor(hourStart), (Long start) -> new HashMap<>());
+
+                if (hourStart >= from && hourEnd <= until) {
+                    for (Map.Entry<Integer, long[]> rate : partition
+                            .getRevenueByVat()
+                            .entrySet()) {
+                        long[] total = rates.computeIfAbsent(rate.getKey(), (Integer key) -> new long[2]);
+                        total[0] += rate.getValue()[hour * 2];
+                        total[1] += rate.getValue()[hour * 2 + 1];
+                    }
+                } else {
+                    int last = partition.lowerBound(Math.min(hourEnd, until));
+                    for (int row = partition.lowerBound(Math.max(hourStart, from)); row < last; row++) {
+                        long[] total = rates.computeIfAbsent(partition.getVatRate(row), (Integer key) -> new long[2]);
+                        total[0] += partition.getPrice(row);
+                        total[1] += partition.getVat(row);
+                    }
+                }
+            }
+        }
+        // Hours without sales add no rates, drop buckets left empty
+        revenue
+                .values()
+                .removeIf((HashMap<Integer, long[]> rates) -> rates
+                        .values()
+                        .stream()
+                        .allMatch((long[] total) -> total[0] == 0 && total[1] == 0));
+        return revenue;
+    }
+
+    /**
+     * Estimate the number of distinct bonus customers within a time range.
+     * Counts are kept per partition, so the range is widened to whole partitions.
+     *
+     * @param from    UNIX timestamp for the start of the range, inclusive
+     * @param until   UNIX timestamp for the end of the range, exclusive
+     * @param keyword Only count customers buying products with this keyword regardless of case, null for all customers
+     * @return Estimated number of distinct customers
+     */
+    public long distinctCustomers (long from, long until, String keyword) {
+        HyperLogLog union = new HyperLogLog();
+        String normalized = keyword == null ? null : SalesStore.normalize(keyword);
+        for (SalesPartition partition : this.partitions(from, until)) {
+            HyperLogLog sketch = normalized == null ? partition.getDistinctCustomers() : partition.getDistinctCustomers(normalized);
+            if (sketch != null) union.merge(sketch);
+        }
+        return union.estimate();
+    }
+
+    /**
+     * Count items sold to bonus customers within a time range by demographic group.
+     * Partitions fully inside the range use their rollups, only the partitions at the edges are scanned.
+     *
+     * @param from  UNIX timestamp for the start of the range, inclusive
+     * @param until UNIX timestamp for the end of the range, exclusive
+     * @return Counts indexed by demographic group, mapped by barcode
+     */
+    public HashMap<Integer, long[]> demographics (long from, long until) {
+        HashMap<Integer, long[]> counts = new HashMap<>();
+        for (SalesPartition partition : this.partitions(from, until)) {
+            if (partition.getStart() >= from && partition.getEnd() <= until) {
+                partition
+                        .getByDemographic()
+                        .forEach((Integer barcode, int[] groups) -> {
+                            long[] total = counts.computeIfAbsent(barcode, (Integer key) -> new long[Demographics.GROUPS]);
+                            for (int group = 0; group < groups.length; group++) total[group] += groups[group];
+                        });
+                continue;
+            }
+            int first = partition.getStart() >= from ? 0 : partition.lowerBound(from);
+            int last = partition.getEnd() <= until ? partition.size() : partition.lowerBound(until);
+            for (int row = first; row < last; row++) {
+                byte group = partition.getDemographic(row);
+                if (group != Demographics.NONE)
+                    counts.computeIfAbsent(partition.getBarcode(row), (Integer key) -> new long[Demographics.GROUPS])[group]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Writes all partitions in binary form, the counterpart of readFrom
+     *
+     * @param out Target to write to
+     * @throws IOException Writing failed
+     */
+    public void writeTo (DataOutput out) throws IOException {
+        out.writeLong(this.partitionSize.getSeconds());
+        out.writeInt(this.partitions.size());
+        for (SalesPartition partition : this.partitions.values()) partition.writeTo(out);
+    }
+
+    /**
+     * Replaces the contents of this store with partitions written by writeTo
+     *
+     * @param in Source written by writeTo
+     * @throws IOException The partitions were written with a different partition size
+     */
+    public void readFrom (ByteBuffer in) throws IOException {
+        long seconds = in.getLong();
+        if (seconds != this.partitionSize.getSeconds())
+            throw new IOException(String.format("Stored partitions are %d seconds long, expected %d", seconds, this.partitionSize.getSeconds()));
+        this.partitions.clear();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            SalesPartition partition = SalesPartition.readFrom(in);
+            this.partitions.put(partition.getStart(), partition);
+        }
+    }
+
+    public PartitionSize getPartitionSize () {
+        return this.partitionSize;
+    }
+
+}
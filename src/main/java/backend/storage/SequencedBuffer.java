@@ -0,0 +1,88 @@
+package backend.storage;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lock free buffer for items numbered with consecutive sequence numbers, ex. the sales journal sequence.
+ *
+ * Any number of threads can offer items at the same time, each item goes to the slot of its sequence number.
+ * A single drainer at a time takes the items out in sequence order and stops at the first gap,
+ * so the drained items always form an unbroken prefix of the sequence.
+ */
+public class SequencedBuffer<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private volatile long next;
+
+    /**
+     * @param capacity      Number of slots, rounded up to a power of two
+     * @param firstSequence Sequence number of the first item to be offered
+     */
+    public SequencedBuffer (int capacity, long firstSequence) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.next = firstSequence;
+    }
+
+    /**
+     * Put an item into its slot
+     *
+     * @param sequence Sequence number of the item
+     * @param item     The item
+     * @return false if the buffer is too full to take the item, it must be drained before trying again
+     */
+    public boolean offer (long sequence, T item) {
+        if (sequence - this.next >= this.slots.length()) return false;
+        this.slots.set((int) (sequence & this.mask), item);
+        return true;
+    }
+
+    /**
+     * Take out items in sequence order, up to the first missing one.
+     * Must not be called by more than one thread at a time.
+     *
+     * @param consumer Called for each item
+     * @return Number of items drained
+     */
+    public int drain (Consumer<T> consumer) {
+        int count = 0;
+        long sequence = this.next;
+        while (true) {
+            int slot = (int) (sequence & this.mask);
+            T item = this.slots.get(slot);
+            if (item == null) break;
+            this.slots.set(slot, null);
+            consumer.accept(item);
+            sequence++;
+            count++;
+        }
+        this.next = sequence;
+        return count;
+    }
+
+    /**
+     * @return true if the next item in sequence is ready to be drained
+     */
+    public boolean hasNext () {
+        return this.slots.get((int) (this.next & this.mask)) != null;
+    }
+
+    /**
+     * @param sequence Sequence number of the latest offered item
+     * @return Number of items between the next one to drain and the given one
+     */
+    public long backlog (long sequence) {
+        return sequence - this.next + 1;
+    }
+
+    /**
+     * @return Number of slots
+     */
+    public int capacity () {
+        return this.slots.length();
+    }
+
+}
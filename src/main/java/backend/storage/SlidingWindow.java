@@ -0,0 +1,102 @@
+package backend.storage;
+
+/**
+ * Counts sales, items and revenue over the last seconds in a ring buffer of one second buckets.
+ * Each bucket holds the running totals at the end of its second, so the totals of any window
+ * are the difference of two buckets and take constant time regardless of the window length.
+ * Safe to use from several threads at once.
+ */
+public class SlidingWindow {
+
+    private final int capacity;
+    // Running totals at the end of each second, indexed by second modulo the capacity
+    private final long[] sales;
+    private final long[] items;
+    private final long[] revenue;
+    // Latest second with a bucket, Long.MIN_VALUE while empty
+    private long head;
+
+    /**
+     * @param capacity Longest window in seconds
+     */
+    public SlidingWindow (int capacity) {
+        this.capacity = Math.max(capacity, 1) + 1;
+        this.sales = new long[this.capacity];
+        this.items = new long[this.capacity];
+        this.revenue = new long[this.capacity];
+        this.head = Long.MIN_VALUE;
+    }
+
+    /**
+     * Count a sale
+     *
+     * @param second  UNIX timestamp of the sale
+     * @param items   Number of items sold
+     * @param revenue Revenue in cents
+     */
+    public synchronized void record (long second, int items, long revenue) {
+        this.advance(second);
+        // A sale older than the buffer is outside every window
+        long oldest = Math.max(second, this.head - this.capacity + 1);
+        for (long s = oldest; s <= this.head; s++) {
+            int slot = this.slot(s);
+            this.sales[slot]++;
+            this.items[slot] += items;
+            this.revenue[slot] += revenue;
+        }
+    }
+
+    /**
+     * Get the totals of a window ending now
+     *
+     * @param now    Current UNIX timestamp
+     * @param window Length of the window in seconds, at most the capacity
+     * @return Number of sales, items and revenue in cents within the window
+     */
+    public synchronized long[] totals (long now, int window) {
+        if (this.head == Long.MIN_VALUE) return new long[3];
+        this.advance(now);
+        int current = this.slot(this.head);
+        int before = this.slot(this.head - Math.min(Math.max(window, 0), this.capacity - 1));
+        return new long[] {
+                this.sales[current] - this.sales[before],
+                this.items[current] - this.items[before],
+                this.revenue[current] - this.revenue[before]
+        };
+    }
+
+    /**
+     * @return Longest window in seconds
+     */
+    public int capacity () {
+        return this.capacity - 1;
+    }
+
+    /**
+     * Carries the running totals forward to a later second
+     *
+     * @param second UNIX timestamp, ignored if not after the latest bucket
+     */
+    private void advance (long second) {
+        if (this.head == Long.MIN_VALUE) {
+            // Seconds before the first sale have zero totals
+            this.head = second;
+            return;
+        }
+        if (second <= this.head) return;
+        int from = this.slot(this.head);
+        long steps = Math.min(second - this.head, this.capacity);
+        for (long s = second - steps + 1; s <= second; s++) {
+            int slot = this.slot(s);
+            this.sales[slot] = this.sales[from];
+            this.items[slot] = this.items[from];
+            this.revenue[slot] = this.revenue[from];
+        }
+        this.head = second;
+    }
+
+    private int slot (long second) {
+        return (int) Math.floorMod(second, (long) this.capacity);
+    }
+
+}
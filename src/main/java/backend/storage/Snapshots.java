@@ -0,0 +1,142 @@
+package backend.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Point in time snapshots of in-memory state, each tagged with the journal sequence number it includes sales up to.
+ *
+ * A snapshot is written to a temporary file and moved into place, so a crash while writing never leaves a partial
+ * snapshot behind. Loading maps the file into memory, and falls back to an older snapshot if the latest can't be read.
+ */
+public class Snapshots {
+
+    private static final String SUFFIX = ".snapshot";
+    private static final int MAGIC = 0x504F5353;
+
+    /**
+     * Writes the contents of a snapshot
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void write (DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads the contents of a snapshot. If reading fails, it's called again for an older snapshot,
+     * so it must replace whatever state an earlier call left behind
+     */
+    @FunctionalInterface
+    public interface ContentReader {
+        void read (ByteBuffer in) throws IOException;
+    }
+
+    private final Path directory;
+    private final int format;
+    private final int retained;
+
+    /**
+     * @param directory Directory holding the snapshot files
+     * @param format    Version of the content format, snapshots of other versions are ignored
+     * @param retained  Number of snapshots to keep, older ones are deleted
+     */
+    public Snapshots (Path directory, int format, int retained) {
+        this.directory = directory;
+        this.format = format;
+        this.retained = Math.max(retained, 1);
+    }
+
+    /**
+     * Write a new snapshot
+     *
+     * @param sequence Sequence number of the last sale included
+     * @param writer   Writes the contents
+     * @throws IOException Writing failed, no snapshot was created
+     */
+    public void write (long sequence, ContentWriter writer) throws IOException {
+        Files.createDirectories(this.directory);
+        Path target = this.directory.resolve(String.format("%020d%s", sequence, SUFFIX));
+        Path temporary = this.directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(this.format);
+            out.writeLong(sequence);
+            writer.write(out);
+            out.flush();
+            channel.force(true);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temporary);
+            throw ex;
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.syncDirectory();
+
+        List<Path> snapshots = this.snapshots();
+        for (int i = 0; i < snapshots.size() - this.retained; i++)
+            Files.deleteIfExists(snapshots.get(i));
+    }
+
+    /**
+     * Load the latest snapshot
+     *
+     * @param reader Reads the contents
+     * @return Sequence number of the last sale included, 0 if there is no readable snapshot
+     * @throws IOException Listing the snapshots failed
+     */
+    public long loadLatest (ContentReader reader) throws IOException {
+        if (!Files.isDirectory(this.directory)) return 0;
+        List<Path> snapshots = this.snapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            try (FileChannel channel = FileChannel.open(snapshots.get(i), StandardOpenOption.READ)) {
+                MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (in.getInt() != MAGIC || in.getInt() != this.format) {
+                    System.out.println("Skipping snapshot of another format: " + snapshots.get(i));
+                    continue;
+                }
+                long sequence = in.getLong();
+                reader.read(in);
+                return sequence;
+            } catch (IOException | RuntimeException ex) {
+                // Truncated or damaged, the older snapshots are kept for this
+                System.out.println("Skipping unreadable snapshot " + snapshots.get(i) + ": " + ex);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Syncs the directory, so a snapshot moved into place is still there after a crash.
+     * Some platforms can't open a directory, there the move is as durable as the file system makes it
+     */
+    private void syncDirectory () {
+        try (FileChannel channel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // Not supported on this platform
+        }
+    }
+
+    private List<Path> snapshots () throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+            for (Path snapshot : stream) snapshots.add(snapshot);
+        }
+        // Names are zero padded sequence numbers, so they sort chronologically
+        snapshots.sort(null);
+        return snapshots;
+    }
+
+}
@@ -0,0 +1,167 @@
+package backend.storage;
+
+import sharedResources.utils.IntIndex;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Space-Saving sketch for finding the most frequent barcodes in a stream using constant memory.
+ *
+ * Tracks at most capacity barcodes in a min-heap ordered by count. When a new barcode arrives and the sketch is full,
+ * it takes over the slot of the least frequent one, inheriting its count.
+ * Any barcode occurring more than total / capacity times is guaranteed to be tracked.
+ * The heap positions are found through an IntIndex, so counting doesn't allocate.
+ */
+public class SpaceSaving {
+
+    private final int capacity;
+    private final int[] keys;
+    private final long[] counts;
+    // Heap index by barcode
+    private IntIndex index;
+    private int size;
+    private boolean evicted;
+
+    public SpaceSaving (int capacity) {
+        this.capacity = capacity;
+        this.keys = new int[capacity];
+        this.counts = new long[capacity];
+        this.index = new IntIndex(capacity);
+    }
+
+    /**
+     * @param source Sketch to copy
+     */
+    public SpaceSaving (SpaceSaving source) {
+        this.capacity = source.capacity;
+        this.keys = source.keys.clone();
+        this.counts = source.counts.clone();
+        this.index = new IntIndex(source.index);
+        this.size = source.size;
+        this.evicted = source.evicted;
+    }
+
+    /**
+     * Count one occurrence of a barcode
+     *
+     * @param key The barcode
+     */
+    public void add (int key) {
+        int index = this.index.get(key);
+        if (index >= 0) {
+            this.counts[index]++;
+            this.siftDown(index);
+        } else if (this.size < this.capacity) {
+            index = this.size++;
+            this.keys[index] = key;
+            this.counts[index] = 1;
+            this.index.put(key, index);
+            this.siftUp(index);
+        } else {
+            // Replace the least frequent barcode
+            this.evicted = true;
+            this.index.remove(this.keys[0]);
+            this.keys[0] = key;
+            this.counts[0]++;
+            this.index.put(key, 0);
+            this.siftDown(0);
+        }
+    }
+
+    /**
+     * @return true if no barcode has ever been evicted, so the counts are exact
+     */
+    public boolean isExact () {
+        return !this.evicted;
+    }
+
+    /**
+     * @param key The barcode
+     * @return The estimated count, an upper bound of the true count. 0 if not tracked
+     */
+    public long count (int key) {
+        int index = this.index.get(key);
+        return index < 0 ? 0 : this.counts[index];
+    }
+
+    /**
+     * @return Number of tracked barcodes
+     */
+    public int size () {
+        return this.size;
+    }
+
+    /**
+     * @param index Index between 0 and size
+     * @return The barcode at the index, in no particular order
+     */
+    public int key (int index) {
+        return this.keys[index];
+    }
+
+    /**
+     * Writes the sketch in binary form, the counterpart of readFrom
+     *
+     * @param out Target to write to
+     * @throws IOException Writing failed
+     */
+    void writeTo (DataOutput out) throws IOException {
+        out.writeBoolean(this.evicted);
+        out.writeInt(this.size);
+        Binary.writeInts(out, this.keys, this.size);
+        Binary.writeLongs(out, this.counts, this.size);
+    }
+
+    /**
+     * Replaces the contents of this sketch with one written by writeTo
+     *
+     * @param in Source written by writeTo
+     */
+    void readFrom (ByteBuffer in) {
+        this.evicted = in.get() != 0;
+        this.size = in.getInt();
+        if (this.size > this.capacity) throw new IllegalStateException("Sketch larger than its capacity");
+        this.index = new IntIndex(this.capacity);
+        for (int i = 0; i < this.size; i++) {
+            this.keys[i] = in.getInt();
+            this.index.put(this.keys[i], i);
+        }
+        for (int i = 0; i < this.size; i++) this.counts[i] = in.getLong();
+    }
+
+    private void siftUp (int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (this.counts[parent] <= this.counts[index]) return;
+            this.swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown (int index) {
+        while (true) {
+            int smallest = index;
+            int left = index * 2 + 1;
+            int right = left + 1;
+            if (left < this.size && this.counts[left] < this.counts[smallest]) smallest = left;
+            if (right < this.size && this.counts[right] < this.counts[smallest]) smallest = right;
+            if (smallest == index) return;
+            this.swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap (int a, int b) {
+        int key = this.keys[a];
+        long count = this.counts[a];
+        this.keys[a] = this.keys[b];
+        this.counts[a] = this.counts[b];
+        this.keys[b] = key;
+        this.counts[b] = count;
+        this.index.put(this.keys[a], a);
+        this.index.put(this.keys[b], b);
+    }
+
+}
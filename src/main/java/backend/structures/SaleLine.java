@@ -0,0 +1,69 @@
+package backend.structures;
+
+import sharedResources.productCatalog.Product;
+import sharedResources.productCatalog.ProductCatalog;
+
+/**
+ * An item of a sale, holding only what the sale fixed: the barcode, the price charged, the discount applied
+ * and the VAT rate. Names, keywords and other product details are not kept, so stored sales don't each keep a copy
+ * of the product. They are looked up in the catalog as it is now, so a product renamed or given another keyword
+ * shows up that way in all its past sales too.
+ */
+public final class SaleLine {
+
+    private final int barcode;
+    private final int price;
+    private final float discount;
+    private final int vatRate;
+
+    /**
+     * @param barcode  Barcode of the product
+     * @param price    Price charged in cents
+     * @param discount Discount applied, from 0 to 1
+     * @param vatRate  VAT rate in basis points
+     */
+    public SaleLine (int barcode, int price, float discount, int vatRate) {
+        this.barcode = barcode;
+        this.price = price;
+        this.discount = discount;
+        this.vatRate = vatRate;
+    }
+
+    /**
+     * Prices a product
+     *
+     * @param product The product sold
+     * @param price   Price charged
+     * @return The line
+     */
+    static SaleLine of (Product product, float price) {
+        int cents = Math.round(price * 100);
+        // The discount counts as applied if it lowered the price
+        float discount = cents < Math.round(product.getPrice() * 100) ? product.getDiscount() : 0;
+        return new SaleLine(product.getBarCode(), cents, discount, Math.round(product.getVat() * 100));
+    }
+
+    public int getBarCode () {return this.barcode;}
+
+    /**
+     * @return Price charged in cents
+     */
+    public int getPrice () {return this.price;}
+
+    public float getDiscount () {return this.discount;}
+
+    /**
+     * @return VAT rate in basis points
+     */
+    public int getVatRate () {return this.vatRate;}
+
+    /**
+     * @return The product as it is in the catalog now, null if it's no longer in the catalog
+     */
+    public Product getProduct () {
+        return ProductCatalog
+                .getInstance()
+                .getProduct(this.barcode);
+    }
+
+}
@@ -1,27 +1,61 @@
 package backend.structures;
 
+import backend.storage.Demographics;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import sharedResources.productCatalog.Product;
 import sharedResources.structures.Customer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+
 /**
  * Represents a sale.
  * Contains the customer, the items and the total and various other data about the sale
  */
 public class Transaction {
 
+    /**
+     * Customer number of transactions without a bonus customer
+     */
+    public static final int NO_CUSTOMER = -1;
+
+    // Version of the binary format written by toBytes
+    private static final byte FORMAT = 1;
+
     private Customer customer;
+    private int customerNo;
+    // Sex and age group of the customer at the time of the sale
+    private byte demographic;
+    private int lane;
+    private long sequence;
     private final long timestamp;
     private float discount;
     private float total;
-    private final Product[] items;
+    private final SaleLine[] lines;
+    // Products the lines were priced from, kept until the sale is journaled as setting the customer reprices them
+    private Product[] quote;
 
     public Transaction (Product[] items) {
-        this.items = items;
-        this.total = 0;
-        for (Product product : items) this.total += product.getDiscountedPrice();
-        this.timestamp = System.currentTimeMillis() / 1000;
+        this(items, System.currentTimeMillis() / 1000);
+    }
+
+    public Transaction (Product[] items, long timestamp) {
+        this(new SaleLine[items.length], timestamp);
+        this.quote = items;
+        this.price(null);
+    }
+
+    private Transaction (SaleLine[] lines, long timestamp) {
+        this.lines = lines;
+        this.timestamp = timestamp;
+        this.customerNo = NO_CUSTOMER;
+        this.demographic = Demographics.NONE;
     }
 
     /**
@@ -29,6 +63,15 @@ public class Transaction {
      * @return The newly created transaction object
      */
     public static Transaction fromJson (JSONArray itemsData) {
+        return fromJson(itemsData, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @param itemsData Raw json data from which to construct the transaction
+     * @param timestamp UNIX timestamp of the sale
+     * @return The newly created transaction object
+     */
+    public static Transaction fromJson (JSONArray itemsData, long timestamp) {
         Product[] items = new Product[itemsData.length()];
 
         for (int i = 0; i < itemsData.length(); i++) {
@@ -36,7 +79,80 @@ public class Transaction {
             Product product = Product.fromJson(itemData);
             items[i] = product;
         }
-        return new Transaction(items);
+        return new Transaction(items, timestamp);
+    }
+
+    /**
+     * Restores a transaction written by toBytes.
+     * The customer object is not restored, only the customer number.
+     *
+     * @param data Binary transaction data
+     * @return The restored transaction
+     * @throws IOException The data is malformed
+     */
+    public static Transaction fromBytes (byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte format = in.readByte();
+        if (format != FORMAT) throw new IOException("Unknown transaction format " + format);
+
+        long timestamp = in.readLong();
+        int lane = in.readInt();
+        int customerNo = in.readInt();
+        byte demographic = in.readByte();
+        float total = in.readFloat();
+        float discount = in.readFloat();
+        SaleLine[] lines = new SaleLine[in.readInt()];
+        for (int i = 0; i < lines.length; i++)
+            lines[i] = new SaleLine(in.readInt(), in.readInt(), in.readFloat(), in.readInt());
+
+        Transaction transaction = new Transaction(lines, timestamp);
+        transaction.lane = lane;
+        transaction.customerNo = customerNo;
+        transaction.demographic = demographic;
+        transaction.total = total;
+        transaction.discount = discount;
+        return transaction;
+    }
+
+    /**
+     * @return The transaction in a compact binary form, used for persisting sales
+     */
+    public byte[] toBytes () {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + this.lines.length * 20);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT);
+            out.writeLong(this.timestamp);
+            out.writeInt(this.lane);
+            out.writeInt(this.customerNo);
+            out.writeByte(this.demographic);
+            out.writeFloat(this.total);
+            out.writeFloat(this.discount);
+            out.writeInt(this.lines.length);
+            for (SaleLine line : this.lines) {
+                out.writeInt(line.getBarCode());
+                out.writeInt(line.getPrice());
+                out.writeFloat(line.getDiscount());
+                out.writeInt(line.getVatRate());
+            }
+        } catch (IOException ex) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Prices the quoted products for a customer
+     *
+     * @param c The customer, null if none
+     */
+    private void price (Customer c) {
+        this.total = 0;
+        for (int i = 0; i < this.quote.length; i++) {
+            float price = this.quote[i].getDiscountedPrice(c);
+            this.lines[i] = SaleLine.of(this.quote[i], price);
+            this.total += price;
+        }
     }
 
     private Transaction addDiscount (float discount) {
@@ -46,9 +162,28 @@ public class Transaction {
 
     public Transaction setCustomer (Customer c) {
         this.customer = c;
-        this.total = 0;
-        for (Product product : this.items)
-            this.total += product.getDiscountedPrice(c);
+        this.customerNo = c == null ? NO_CUSTOMER : c.getId();
+        this.demographic = c == null ? Demographics.NONE : Demographics.of(c.getSex(), c.getAge(Instant
+                .ofEpochSecond(this.timestamp)
+                .atZone(ZoneId.systemDefault())
+                .toLocalDate()));
+        if (this.quote != null) this.price(c);
+        return this;
+    }
+
+    /**
+     * @param sequence The sequence number the sale got in the sales journal
+     * @return The transaction
+     */
+    public Transaction setSequence (long sequence) {
+        this.sequence = sequence;
+        // Journaled, the prices are final
+        this.quote = null;
+        return this;
+    }
+
+    public Transaction setLane (int lane) {
+        this.lane = lane;
         return this;
     }
 
@@ -60,7 +195,24 @@ public class Transaction {
 
     public Customer getCustomer () {return this.customer;}
 
-    public Product[] getItems () {return this.items;}
+    public int getCustomerNo () {return this.customerNo;}
+
+    /**
+     * @return Sex and age group of the customer at the time of the sale, see {@link Demographics}
+     */
+    public byte getDemographic () {return this.demographic;}
+
+    public int getLane () {return this.lane;}
+
+    public long getSequence () {return this.sequence;}
+
+    public SaleLine[] getLines () {return this.lines;}
+
+    /**
+     * @param index Index of the item
+     * @return The price charged for the item in cents
+     */
+    public int getPrice (int index) {return this.lines[index].getPrice();}
 
     public JSONObject toJson () {
         JSONObject transaction = new JSONObject();
@@ -69,11 +221,24 @@ public class Transaction {
         transaction.put("discount", this.discount);
 
         JSONArray items = new JSONArray();
-        for (Product item : this.items) items.put(item.toJson());
+        for (SaleLine line : this.lines) {
+            JSONObject item = new JSONObject()
+                    .put("barCode", line.getBarCode())
+                    .put("price", line.getPrice() / 100f)
+                    .put("discount", line.getDiscount())
+                    .put("vat", line.getVatRate() / 100f);
+            // Product details are the catalog's current ones, not necessarily those at the time of the sale
+            Product product = line.getProduct();
+            if (product != null) item
+                    .put("productId", product.getProductId())
+                    .put("name", product.getName())
+                    .put("keyword", product.getKeyword());
+            items.put(item);
+        }
         transaction.put("items", items);
 
-        if (this.customer != null)
-            transaction.put("customerNo", this.customer.getId());
+        if (this.customerNo != NO_CUSTOMER)
+            transaction.put("customerNo", this.customerNo);
         return transaction;
     }
 
@@ -84,7 +249,7 @@ public class Transaction {
                 Total: %f
                 Item count: %d
                 Discount: %f
-                Customer: %s""", this.timestamp, this.total, this.items.length, this.discount, this.customer);
+                Customer: %s""", this.timestamp, this.total, this.lines.length, this.discount, this.customer);
     }
 
 }
@@ -17,7 +17,6 @@ import sharedResources.utils.HttpController;
 
 import java.net.URL;
 import java.time.LocalDate;
-import java.time.Period;
 import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.List;
@@ -44,12 +43,79 @@ public class MarketingController implements Initializable {
     @FXML
     private Label outputTitle;
 
+    // Rows of the popular items by barcode, kept up to date with live sales within the shown range
+    private final HashMap<Integer, SoldProduct> shownProducts = new HashMap<>();
+    private long shownStart, shownEnd;
+    private boolean shownBonus;
+
     @Override
     public void initialize (URL url, ResourceBundle resourceBundle) {
         this.tableView.setEditable(false);
         this.showPopular.setOnAction(ActionEvent -> this.popular(false));
         this.showPopularBonus.setOnAction(ActionEvent -> this.popular(true));
         this.getCustomer.setOnAction(ActionEvent -> this.customer());
+        this.followSales();
+    }
+
+    /**
+     * Keeps the popular items up to date with the sales made while they are shown
+     */
+    private void followSales () {
+        SalesFeedClient
+                .getInstance()
+                .addListener(new SalesFeedClient.Listener() {
+                    @Override
+                    public void onSale (JSONObject sale) {
+                        MarketingController.this.addSale(sale);
+                    }
+
+                    @Override
+                    public void onResync () {
+                        if (MarketingController.this.shownEnd != 0)
+                            MarketingController.this.popular(MarketingController.this.shownBonus);
+                    }
+                });
+    }
+
+    /**
+     * Adds the products of a live sale to the shown popular items, if the sale is within the shown range
+     *
+     * @param sale Sale event from the SalesFeedClient
+     */
+    private void addSale (JSONObject sale) {
+        long timestamp = sale.getLong("timestamp");
+        if (timestamp < this.shownStart || timestamp >= this.shownEnd) return;
+        // Only sales to bonus customers carry the customer's sex and age
+        if (this.shownBonus && !sale.has("customerNo")) return;
+
+        JSONArray items = sale.getJSONArray("items");
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            int barCode = item.getInt("barCode");
+            int amount = item.getInt("amount");
+            SoldProduct soldProduct = this.shownProducts.get(barCode);
+            if (soldProduct == null) {
+                soldProduct = new SoldProduct();
+                soldProduct.setName(item.getString("name"));
+                soldProduct.setBarCode(barCode);
+                this.shownProducts.put(barCode, soldProduct);
+                this.tableView
+                        .getItems()
+                        .add(soldProduct);
+            }
+            soldProduct.addToAmount(amount);
+
+            if (this.shownBonus) {
+                String sex = sale.getString("sex");
+                if (sex.equals("MALE")) soldProduct.addPurchaseByMen(amount);
+                else if (sex.equals("FEMALE")) soldProduct.addPurchaseByWomen(amount);
+                else soldProduct.addPurchaseByUnspec(amount);
+                JSONArray ageGroup = sale.getJSONArray("ageGroup");
+                for (int j = 0; j < ageGroup.length(); j++)
+                    soldProduct.addToAgeGroup(ageGroup.getInt(j));
+            }
+        }
+        this.tableView.refresh();
     }
 
     /**
@@ -80,12 +146,18 @@ public class MarketingController implements Initializable {
         System.out.println(start);
         System.out.println(end);
 
+        // Live sales are added to the rows from now on
+        this.shownProducts.clear();
+        this.shownStart = start;
+        this.shownEnd = end;
+        this.shownBonus = bonus;
+
         // Is executed when pushing popular (bonus) button
         if (bonus) {
 
-            // Fetching data
+            // Fetching data, aggregated by sex and age on the server
             HttpController http = new HttpController("GET",
-                    String.format("http://localhost:8080/api/popular/%d-%d/%s", start, end, bonus ? "bonus" : ""));
+                    String.format("http://localhost:8080/api/popular/%d-%d/bonus/demographics", start, end));
             http.sendRequest();
             JSONArray response = new JSONArray(http.getResponse());
 
@@ -153,63 +225,32 @@ public class MarketingController implements Initializable {
                     .getColumns()
                     .add(unspecColumn);
 
-            // Keep track of type of products sold
-            HashMap<String, SoldProduct> soldProducts = new HashMap<>();
-
             // Check that sales isn't null
             if (response == null) {
                 this.outputTitle.setText("There's no sales to view");
                 return;
             }
 
-            // Go through JSONObjects in the array
-            for(int i = 0; i < response.length(); i++) {
+            // Go through JSONObjects in the array, one for each product
+            for (int i = 0; i < response.length(); i++) {
                 JSONObject object = response.getJSONObject(i);
-                String[] sales = JSONObject.getNames(object.getJSONObject("sales"));
-                JSONObject customer = object.getJSONObject("customer");
-
-                for (String barcode : sales) {
-
-                    // If the product already doesn't exist in table, create a new SoldProduct
-                    if (!soldProducts.containsKey(barcode)) {
-                        http.setUrl(String.format("http://localhost:8080/api/productcatalog/barcode/%s", barcode));
-                        http.sendRequest();
-                        String name = (new JSONObject(http.getResponse())).getString("name");
-                        SoldProduct soldProduct = new SoldProduct();
-                        soldProduct.setName(name);
-                        soldProduct.setBarCode(Integer.parseInt(barcode));
-                        soldProducts.put(barcode, soldProduct);
-                    }
-
-                    // Add amount sold
-                    int amount = object.getJSONObject("sales").getInt(barcode);
-                    soldProducts.get(barcode).addToAmount(amount);
-
-                    // Add gender distribution
-                    String sex = customer.getString("sex");
-                    if (sex.equals("MALE")) {
-                        soldProducts.get(barcode).addPurchaseByMen(amount);
-                    } else if (sex.equals("FEMALE")) {
-                        soldProducts.get(barcode).addPurchaseByWomen(amount);
-                    } else {
-                        soldProducts.get(barcode).addPurchaseByUnspec(amount);
-                    }
-
-                    // Add age
-                    String birthdateJson = customer.getString("birthDate");
-                    String birthdate = birthdateJson.substring(0, 10);
-                    int age = Period.between(LocalDate.parse(birthdate), java.time.LocalDate.now()).getYears();
-                    soldProducts.get(barcode).addToAgeGroup(age);
-
-                }
-
-            }
-
-            // Add all products to table
-            for (SoldProduct item : soldProducts.values()) {
+                SoldProduct soldProduct = new SoldProduct();
+                soldProduct.setName(object.getString("name"));
+                soldProduct.setBarCode(object.getInt("barCode"));
+                soldProduct.addToAmount(object.getInt("amount"));
+                soldProduct.addPurchaseByMen(object.getInt("purchaseByMen"));
+                soldProduct.addPurchaseByWomen(object.getInt("purchaseByWomen"));
+                soldProduct.addPurchaseByUnspec(object.getInt("purchaseByUnspec"));
+
+                // Add age range
+                JSONArray ageGroup = object.getJSONArray("ageGroup");
+                for (int j = 0; j < ageGroup.length(); j++)
+                    soldProduct.addToAgeGroup(ageGroup.getInt(j));
+
+                this.shownProducts.put(soldProduct.getBarCode(), soldProduct);
                 this.tableView
                         .getItems()
-                        .add(item);
+                        .add(soldProduct);
             }
 
         }
@@ -277,6 +318,7 @@ public class MarketingController implements Initializable {
                 soldProduct.setName(name);
                 soldProduct.setBarCode(Integer.parseInt(barcode));
                 soldProduct.addToAmount(response.getInt(barcode));
+                this.shownProducts.put(soldProduct.getBarCode(), soldProduct);
 
                 // Add to table
                 this.tableView
@@ -304,6 +346,10 @@ public class MarketingController implements Initializable {
             return;
         }
 
+        // The sales of a single customer are not updated live
+        this.shownProducts.clear();
+        this.shownStart = this.shownEnd = 0;
+
         // Fetching data
         HttpController http = new HttpController("GET",
                 String.format("http://localhost:8080/api/sales/%d", customerId));
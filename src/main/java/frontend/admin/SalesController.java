@@ -48,6 +48,9 @@ public class SalesController implements Initializable {
     private final ArrayList<Product> productList = new ArrayList();
     private final Set<Integer> discountedList = new HashSet<>();
     private final HashMap<Integer, Product> discounteds = new HashMap<>();
+    // Rows of the sold products table by barcode, and the range they cover in epoch seconds
+    private final HashMap<Integer, SoldProduct> soldProducts = new HashMap<>();
+    private long salesStart, salesEnd;
 
     /**
      * Initializes the view
@@ -70,6 +73,7 @@ public class SalesController implements Initializable {
 
         // ADD LISTENERS
         this.addListeners();
+        this.followSales();
     }
 
 
@@ -112,11 +116,13 @@ public class SalesController implements Initializable {
             String response = http.getResponse();
 
             JSONArray array = new JSONArray(response);
+            ArrayList<Product> products = new ArrayList<>(array.length());
             for (Object entry : array) {
                 JSONObject productData = (JSONObject) entry;
                 Product product = Product.fromJson(productData);
-                this.productCatalog.addProduct(product);
+                products.add(product);
             }
+            this.productCatalog.addProducts(products);
 
         } catch (JSONException e) {
             System.out.println("Failed parsing the JSON @SalesController");
@@ -312,6 +318,8 @@ public class SalesController implements Initializable {
         this.soldProductsTable
                 .getItems()
                 .clear();
+        this.soldProducts.clear();
+        this.salesStart = this.salesEnd = 0;
         this.getSalesData();
     }
 
@@ -345,16 +353,68 @@ public class SalesController implements Initializable {
                 soldProduct.setName(name);
                 soldProduct.setBarCode(barCode);
                 soldProduct.addToAmount(res.getInt(barcode));
+                this.soldProducts.put(barCode, soldProduct);
                 this.soldProductsTable
                         .getItems()
                         .add(soldProduct);
             }
+            this.salesStart = start;
+            this.salesEnd = end;
         } catch (NullPointerException e) {
             this.soldProductsTable.setPlaceholder(new Label("No Sales for given date"));
         }
     }
 
 
+    /**
+     * Keeps the sold products table up to date with the sales made while it is shown
+     */
+    private void followSales () {
+        SalesFeedClient
+                .getInstance()
+                .addListener(new SalesFeedClient.Listener() {
+                    @Override
+                    public void onSale (JSONObject sale) {
+                        SalesController.this.addSale(sale);
+                    }
+
+                    @Override
+                    public void onResync () {
+                        if (SalesController.this.salesDataDatePicker.getValue() != null)
+                            SalesController.this.updateSoldProductsTable();
+                    }
+                });
+    }
+
+    /**
+     * Adds the products of a live sale to the sold products table, if the sale is within the shown date
+     *
+     * @param sale Sale event from the SalesFeedClient
+     */
+    private void addSale (JSONObject sale) {
+        long timestamp = sale.getLong("timestamp");
+        if (timestamp < this.salesStart || timestamp >= this.salesEnd) return;
+
+        JSONArray items = sale.getJSONArray("items");
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            int barCode = item.getInt("barCode");
+            SoldProduct soldProduct = this.soldProducts.get(barCode);
+            if (soldProduct == null) {
+                soldProduct = new SoldProduct();
+                soldProduct.setName(item.getString("name"));
+                soldProduct.setBarCode(barCode);
+                this.soldProducts.put(barCode, soldProduct);
+                this.soldProductsTable
+                        .getItems()
+                        .add(soldProduct);
+            }
+            soldProduct.addToAmount(item.getInt("amount"));
+        }
+        this.soldProductsTable.refresh();
+    }
+
+
     /**
      * Centralized place for adding listeners.
      */
@@ -0,0 +1,176 @@
+package frontend.admin;
+
+import javafx.application.Platform;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Reads the Server-Sent Events from /api/sales/feed on a background thread and passes each sale to the listeners
+ * on the JavaFX thread. Reconnects when the connection drops. Listeners are asked to reload whenever sales may have
+ * been missed, after connecting, when the sequence numbers of the sales skip and when a heartbeat carries a later
+ * sequence number than the last sale received.
+ */
+public class SalesFeedClient {
+
+    private static final String URL = "http://localhost:8080/api/sales/feed";
+    // Milliseconds to wait before reconnecting
+    private static final int RETRY_DELAY = 3000;
+
+    /**
+     * Receives the live sales
+     */
+    public interface Listener {
+
+        /**
+         * @param sale The sale event, see the feed endpoint in the backend
+         */
+        void onSale (JSONObject sale);
+
+        /**
+         * Sales may have been missed, the view should be loaded again
+         */
+        void onResync ();
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners;
+    private Thread reader;
+    private long lastSequence;
+
+    private SalesFeedClient () {
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    public static SalesFeedClient getInstance () {
+        return SalesFeedClient.Holder.INSTANCE;
+    }
+
+    /**
+     * Start receiving sales, connects on the first listener
+     *
+     * @param listener Called on the JavaFX thread
+     */
+    public synchronized void addListener (Listener listener) {
+        this.listeners.add(listener);
+        if (this.reader == null) {
+            this.reader = new Thread(this::run, "sales-feed-client");
+            this.reader.setDaemon(true);
+            this.reader.start();
+        }
+    }
+
+    public void removeListener (Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    private void run () {
+        while (true) {
+            try {
+                this.follow();
+            } catch (IOException ex) {
+                System.out.println("Sales feed disconnected: " + ex.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_DELAY);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads events until the connection is closed
+     *
+     * @throws IOException Connecting or reading failed
+     */
+    private void follow () throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(URL).openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        connection.setReadTimeout(0);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            // Sales made while disconnected were missed
+            this.lastSequence = 0;
+            this.dispatchResync();
+
+            String event = "message";
+            StringBuilder data = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    // A blank line ends the event
+                    if (event.equals("sale") && data.length() > 0) this.dispatchSale(data.toString());
+                    else if (event.equals("heartbeat") && data.length() > 0) this.checkHeartbeat(data.toString());
+                    event = "message";
+                    data.setLength(0);
+                } else if (line.startsWith("event:")) {
+                    event = line
+                            .substring(6)
+                            .trim();
+                } else if (line.startsWith("data:")) {
+                    if (data.length() > 0) data.append('\n');
+                    data.append(line
+                            .substring(5)
+                            .trim());
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void dispatchSale (String data) {
+        JSONObject sale;
+        try {
+            sale = new JSONObject(data);
+        } catch (JSONException ex) {
+            System.out.println("Skipping malformed sale event: " + ex.getMessage());
+            return;
+        }
+        long sequence = sale.optLong("sequence");
+        boolean skipped = this.lastSequence != 0 && sequence != this.lastSequence + 1;
+        this.lastSequence = sequence;
+        if (skipped) {
+            // Events were dropped, the reload includes this sale
+            this.dispatchResync();
+            return;
+        }
+        Platform.runLater(() -> {
+            for (Listener listener : this.listeners) listener.onSale(sale);
+        });
+    }
+
+    /**
+     * @param data Heartbeat event with the sequence number of the latest sale sent before it
+     */
+    private void checkHeartbeat (String data) {
+        long sequence;
+        try {
+            sequence = new JSONObject(data).optLong("sequence");
+        } catch (JSONException ex) {
+            System.out.println("Skipping malformed heartbeat: " + ex.getMessage());
+            return;
+        }
+        boolean missed = this.lastSequence != 0 && sequence > this.lastSequence;
+        if (sequence > this.lastSequence) this.lastSequence = sequence;
+        // The last sales before the heartbeat were dropped
+        if (missed) this.dispatchResync();
+    }
+
+    private void dispatchResync () {
+        Platform.runLater(() -> {
+            for (Listener listener : this.listeners) listener.onResync();
+        });
+    }
+
+    private static class Holder {
+        private static final SalesFeedClient INSTANCE = new SalesFeedClient();
+    }
+
+}
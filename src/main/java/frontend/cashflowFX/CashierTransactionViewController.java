@@ -50,6 +50,7 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Optional;
@@ -78,6 +79,8 @@ public class CashierTransactionViewController implements Window, Initializable {
 
     // CONTAINERS
     private ProductCatalog productCatalog;
+    // Number of products shown while typing in the search field
+    private static final int SUGGESTIONS = 50;
 
     // BARCODE RELATED
     @FXML
@@ -264,13 +267,15 @@ public class CashierTransactionViewController implements Window, Initializable {
             String response = http.getResponse();
 
             JSONArray array = new JSONArray(response);
+            ArrayList<Product> products = new ArrayList<>(array.length());
             for (Object entry : array) {
                 JSONObject productData = (JSONObject) entry;
                 Product product = Product.fromJson(productData);
                 if (product.getDiscount() > 0 && !product.getBonusOnlyDiscount())
                     product.setPrice(product.getDiscountedPrice());
-                this.productCatalog.addProduct(product);
+                products.add(product);
             }
+            this.productCatalog.addProducts(products);
 
         } catch (JSONException e) {
             System.out.println("Failed parsing the JSON @CashierTransactionViewController");
@@ -292,6 +297,7 @@ public class CashierTransactionViewController implements Window, Initializable {
         this.onChangeProductPriceListener();
         this.onAddDiscount();
         this.searchByKeyWordListener();
+        this.suggestListener();
         this.shelfTransactionListener();
         this.receivePaymentListener();
     }
@@ -345,6 +351,38 @@ public class CashierTransactionViewController implements Window, Initializable {
         });
     }
 
+    /**
+     * Suggests products as the user types in the search field
+     */
+    private void suggestListener () {
+        this.searchField
+                .textProperty()
+                .addListener((observable, oldText, newText) -> this.onSuggest(newText));
+    }
+
+    /**
+     * Shows the products whose name, a word in the name or keyword starts with the text, all products if empty.
+     * If nothing starts with the text, shows the products with names or keywords resembling it
+     *
+     * @param text Text in the search field
+     */
+    private void onSuggest (String text) {
+        this.productTable
+                .getItems()
+                .clear();
+        if (text == null || text.isBlank()) {
+            this.initializeProductTable();
+            return;
+        }
+        Product[] products = this.productCatalog.suggest(text, SUGGESTIONS);
+        // Probably misspelled
+        if (products.length == 0) products = this.productCatalog.search(text, SUGGESTIONS);
+        for (Product product : products)
+            this.productTable
+                    .getItems()
+                    .add(product);
+    }
+
     @FXML
     private void onSearchByKeyword () {
         this.productTable
@@ -663,25 +701,28 @@ public class CashierTransactionViewController implements Window, Initializable {
      * Gets the product we want to add to the cart
      */
     private void onAddProductToCart () {
-        try {
-            Product p = (Product) this.productTable
-                    .getSelectionModel()
-                    .getSelectedItem();
-            Product clone = p.clone();
-            this.addProductToCart(clone);
-        } catch (CloneNotSupportedException e) {
-            System.out.println("Object not clonable!");
-            e.printStackTrace();
-        }
+        Product p = (Product) this.productTable
+                .getSelectionModel()
+                .getSelectedItem();
+        this.addProductToCart(p);
     }
 
 
     /**
-     * Adds a product to the cart
+     * Adds a copy of a product to the cart.
+     * Catalog products are shared with every reader of the catalog, so discounts and price edits go on the copy
      *
-     * @param p the product we wish to add
+     * @param product the product we wish to add
      */
-    private void addProductToCart (Product p) {
+    private void addProductToCart (Product product) {
+        Product p;
+        try {
+            p = product.clone();
+        } catch (CloneNotSupportedException e) {
+            System.out.println("Object not clonable!");
+            e.printStackTrace();
+            return;
+        }
         this.customerViewController.addProduct(p);
         this.cartTable
                 .getItems()
@@ -966,13 +1007,21 @@ public class CashierTransactionViewController implements Window, Initializable {
                 this.cartSum.setText(Float.toString(this.sum));
             }
         }
-        // UPDATE PRODUCT CATALOG
-        for (Object obj : this.productTable.getItems()) {
-            Product p = (Product) obj;
+        // UPDATE PRODUCT LIST
+        // The listed products are shared with every reader of the catalog, so the bonus prices go on copies
+        ObservableList items = this.productTable.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            Product p = (Product) items.get(i);
             // Check if product price is available for bonus customers only
             if (p.getBonusOnlyDiscount()) {
-                float bonusPrice = p.getDiscountedPrice(this.bonusCustomer);
-                p.setPrice(bonusPrice);
+                try {
+                    Product clone = p.clone();
+                    clone.setPrice(p.getDiscountedPrice(this.bonusCustomer));
+                    items.set(i, clone);
+                } catch (CloneNotSupportedException e) {
+                    System.out.println("Object not clonable!");
+                    e.printStackTrace();
+                }
             }
         }
 
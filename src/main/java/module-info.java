@@ -20,6 +20,7 @@ module SalesSystem {
     requires spring.boot;
     requires spring.boot.autoconfigure;
     requires spring.web;
+    requires spring.webmvc;
     requires spring.core;
     requires spring.beans;
     requires spring.context;
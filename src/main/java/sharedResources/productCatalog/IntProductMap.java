@@ -0,0 +1,119 @@
+package sharedResources.productCatalog;
+
+import sharedResources.utils.IntIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Maps barcodes to products. Barcodes are kept in a primitive array, found through an IntIndex,
+ * so looking up a product doesn't box the barcode. Not thread safe.
+ */
+class IntProductMap {
+
+    /**
+     * Receives the mapped products
+     */
+    @FunctionalInterface
+    interface Visitor {
+        void visit (int barcode, Product product);
+    }
+
+    private final IntIndex index;
+    // Barcodes and products by position in the index
+    private int[] keys;
+    private Product[] values;
+    private int size;
+
+    IntProductMap () {
+        this(16);
+    }
+
+    /**
+     * @param expected Number of products expected, to avoid growing
+     */
+    IntProductMap (int expected) {
+        this.index = new IntIndex(expected);
+        this.keys = new int[Math.max(expected, 4)];
+        this.values = new Product[this.keys.length];
+    }
+
+    /**
+     * @param source The map to copy
+     */
+    IntProductMap (IntProductMap source) {
+        this.index = new IntIndex(source.index);
+        this.keys = source.keys.clone();
+        this.values = source.values.clone();
+        this.size = source.size;
+    }
+
+    /**
+     * @param barcode Barcode to look up
+     * @return The product, null if none has the barcode
+     */
+    Product get (int barcode) {
+        int position = this.index.get(barcode);
+        return position < 0 ? null : this.values[position];
+    }
+
+    /**
+     * @param barcode Barcode to look up
+     * @return true if a product has the barcode
+     */
+    boolean contains (int barcode) {
+        return this.index.get(barcode) >= 0;
+    }
+
+    /**
+     * @param barcode Barcode of the product
+     * @param product The product, not null
+     * @return The product previously mapped to the barcode, null if none
+     */
+    Product put (int barcode, Product product) {
+        int position = this.index.putIfAbsent(barcode, this.size);
+        if (position < 0) {
+            position = this.size++;
+            if (position == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, position * 2);
+                this.values = Arrays.copyOf(this.values, position * 2);
+            }
+            this.keys[position] = barcode;
+        }
+        Product previous = this.values[position];
+        this.values[position] = product;
+        return previous;
+    }
+
+    /**
+     * @param visitor Called with each barcode and its product, in the order the barcodes were first put
+     */
+    void forEach (Visitor visitor) {
+        for (int i = 0; i < this.size; i++) visitor.visit(this.keys[i], this.values[i]);
+    }
+
+    /**
+     * @return The products, in the order their barcodes were first put
+     */
+    ArrayList<Product> values () {
+        return new ArrayList<>(Arrays.asList(this.values).subList(0, this.size));
+    }
+
+    /**
+     * @return A copy of the mapping
+     */
+    HashMap<Integer, Product> toHashMap () {
+        HashMap<Integer, Product> map = new HashMap<>(this.size * 2);
+        this.forEach(map::put);
+        return map;
+    }
+
+    /**
+     * @return Number of products
+     */
+    int size () {
+        return this.size;
+    }
+
+}
@@ -0,0 +1,116 @@
+package sharedResources.productCatalog;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+
+/**
+ * Finds products by the beginning of their name, of any word in their name, or of their keyword.
+ * The lowercased terms are kept in one sorted array with the barcode of each term alongside, so a lookup is a
+ * binary search followed by reading the matching terms in order. Built once from the products and not changed after.
+ */
+class PrefixIndex {
+
+    private final String[] terms;
+    private final int[] barcodes;
+
+    /**
+     * @param products The products to index
+     */
+    PrefixIndex (Collection<Product> products) {
+        // Each name is indexed from the start of every word, plus the keyword
+        Entry[] entries = new Entry[Math.max(products.size() * 3, 16)];
+        int size = 0;
+        for (Product product : products) {
+            String name = normalize(product.getName());
+            for (int start = 0; start < name.length(); start++) {
+                if (name.charAt(start) == ' ' || (start > 0 && name.charAt(start - 1) != ' ')) continue;
+                if (size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+                entries[size++] = new Entry(name.substring(start), product.getBarCode());
+            }
+            String keyword = normalize(product.getKeyword());
+            if (!keyword.isEmpty()) {
+                if (size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+                entries[size++] = new Entry(keyword, product.getBarCode());
+            }
+        }
+        Arrays.sort(entries, 0, size);
+
+        this.terms = new String[size];
+        this.barcodes = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.terms[i] = entries[i].term;
+            this.barcodes[i] = entries[i].barcode;
+        }
+    }
+
+    /**
+     * @param prefix The beginning of a name, word or keyword, case does not matter
+     * @param limit  Maximum number of barcodes to return
+     * @return Barcodes of the matching products, in the order of the matching terms and then the barcodes
+     */
+    LinkedHashSet<Integer> find (String prefix, int limit) {
+        String term = normalize(prefix);
+        LinkedHashSet<Integer> found = new LinkedHashSet<>();
+        for (int i = this.lowerBound(term); i < this.terms.length && found.size() < limit; i++) {
+            if (!this.terms[i].startsWith(term)) break;
+            found.add(this.barcodes[i]);
+        }
+        return found;
+    }
+
+    /**
+     * @param term A whole name, word or keyword, case does not matter
+     * @return Barcodes of the products with exactly that term
+     */
+    LinkedHashSet<Integer> findTerm (String term) {
+        String normalized = normalize(term);
+        LinkedHashSet<Integer> found = new LinkedHashSet<>();
+        for (int i = this.lowerBound(normalized); i < this.terms.length && this.terms[i].equals(normalized); i++)
+            found.add(this.barcodes[i]);
+        return found;
+    }
+
+    /**
+     * @param term A lowercased term
+     * @return Index of the first term not before the given one
+     */
+    private int lowerBound (String term) {
+        int low = 0;
+        int high = this.terms.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.terms[middle].compareTo(term) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param text A name, keyword or query
+     * @return The text in the form used by the index
+     */
+    static String normalize (String text) {
+        return text == null ? "" : text
+                .trim()
+                .toLowerCase(Locale.ROOT);
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final String term;
+        private final int barcode;
+
+        private Entry (String term, int barcode) {
+            this.term = term;
+            this.barcode = barcode;
+        }
+
+        @Override
+        public int compareTo (Entry other) {
+            int order = this.term.compareTo(other.term);
+            return order != 0 ? order : Integer.compare(this.barcode, other.barcode);
+        }
+    }
+
+}
@@ -57,7 +57,7 @@ public class Product implements Cloneable {
         return this.name;
     }
 
-    public Integer getBarCode () {
+    public int getBarCode () {
         return this.barCode;
     }
 
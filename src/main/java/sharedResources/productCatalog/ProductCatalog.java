@@ -2,21 +2,94 @@ package sharedResources.productCatalog;
 
 import org.json.JSONArray;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+/**
+ * The products for sale. Readers see an immutable snapshot of the products, so they never lock and each call sees
+ * one consistent set of prices. A change copies the snapshot, applies itself to the copy and publishes it with the
+ * next version. Changes waiting while another is applied are applied together, so a burst of changes copies once.
+ */
 public class ProductCatalog {
 
-    private static ProductCatalog instance;
+    /**
+     * Longest query searched for, longer queries are cut to this length
+     */
+    public static final int MAX_QUERY_LENGTH = 64;
+
+    /**
+     * A published version of the products, never changed after it is published
+     */
+    private static final class Snapshot {
+        private final Products products;
+        // Increases with every published snapshot, lets cached results holding product names tell if they are stale
+        private final int version;
 
-    private final Products products;
+        private Snapshot (Products products, int version) {
+            this.products = products;
+            this.version = version;
+        }
+    }
 
-    private ProductCatalog () {this.products = new Products();}
+    private final AtomicReference<Snapshot> snapshot;
+    // Changes waiting for the next snapshot
+    private final ConcurrentLinkedQueue<Consumer<Products>> pending;
+    private final Object writeLock;
+
+    private ProductCatalog () {
+        this.snapshot = new AtomicReference<>(new Snapshot(new Products(), 0));
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.writeLock = new Object();
+    }
+
+    private static class Holder {
+        private static final ProductCatalog INSTANCE = new ProductCatalog();
+    }
 
     public static ProductCatalog getInstance () {
-        if (instance == null) instance = new ProductCatalog();
-        return instance;
+        return Holder.INSTANCE;
     }
 
+    /**
+     * @return The products of the current snapshot, must not be changed
+     */
+    private Products products () {
+        return this.snapshot.get().products;
+    }
+
+    /**
+     * Applies a change to a copy of the products and publishes the copy. Returns once the change is visible to readers.
+     *
+     * @param change Changes the copy, must not keep it
+     */
+    private void write (Consumer<Products> change) {
+        this.pending.add(change);
+        synchronized (this.writeLock) {
+            // Already applied with the changes of another writer
+            if (this.pending.isEmpty()) return;
+            Snapshot current = this.snapshot.get();
+            Products products = new Products(current.products);
+            for (Consumer<Products> next = this.pending.poll(); next != null; next = this.pending.poll())
+                next.accept(products);
+            this.snapshot.set(new Snapshot(products, current.version + 1));
+        }
+    }
+
+    /**
+     * @param product A published product
+     * @return A copy of the product that can be changed and added in its place
+     */
+    private static Product copy (Product product) {
+        try {
+            return product.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
 
     /**
      * Searches for all products which keyword matches the given keyword
@@ -24,7 +97,7 @@ public class ProductCatalog {
      * @return HashMap containing found products
      */
     public HashMap<Integer, Product> findByKeyword(String keyword) {
-        return this.products.findByKeyword(keyword);
+        return this.products().findByKeyword(keyword);
     }
 
     /**
@@ -34,9 +107,7 @@ public class ProductCatalog {
      * @return true if present, otherwise false
      */
     public boolean has (int barcode) {
-        return this.products
-                .getAllProducts()
-                .containsKey(barcode);
+        return this.products().has(barcode);
     }
 
     /**
@@ -44,18 +115,42 @@ public class ProductCatalog {
      * @return The matching product otherwise null
      */
     public JSONArray findProductsKeyword (String kw) {
-        Product[] productArray = this.products.findProductsKeyword(kw);
+        Product[] productArray = this.products().findProductsKeyword(kw);
+        if (productArray == null) return null;
         JSONArray products = new JSONArray();
         for (Product product : productArray) products.put(product.toJson());
         return products;
     }
 
+    /**
+     * Finds products for search as you type
+     *
+     * @param prefix Beginning of the name, a word in the name or the keyword, case does not matter
+     * @param limit  Maximum number of products to return
+     * @return The matching products
+     */
+    public Product[] suggest (String prefix, int limit) {
+        return this.products().suggest(prefix, limit);
+    }
+
+    /**
+     * Finds products by a name or keyword that may be misspelled
+     *
+     * @param query A name, a word in the name or a keyword, only the first {@link #MAX_QUERY_LENGTH} characters are used
+     * @param limit Maximum number of products to return
+     * @return The matching products, best match first
+     */
+    public Product[] search (String query, int limit) {
+        if (query.length() > MAX_QUERY_LENGTH) query = query.substring(0, MAX_QUERY_LENGTH);
+        return this.products().search(query, limit);
+    }
+
     /**
      * @param kw Keyword to search by
      * @return The matching product otherwise null
      */
     public Product findProductName (String kw) {
-        return this.products.findProductName(kw);
+        return this.products().findProductName(kw);
     }
 
     /**
@@ -64,26 +159,42 @@ public class ProductCatalog {
      * @param apiURL API URL.
      */
     public void fetchProducts (String apiURL) {
-        this.products.fetchProducts(apiURL);
+        this.addProducts(Products.fetchProducts(apiURL));
+    }
+
+    /**
+     * @return The current version of the catalog, increases with every batch of changes made through the catalog
+     */
+    public int getVersion () {
+        return this.snapshot.get().version;
     }
 
     /**
      * Calls products to retrieves its products
      *
-     * @return A HashMap containing product with k: Id and v: Product
+     * @return A copy of the products in a HashMap with k: bar code and v: Product
      */
     public HashMap<Integer, Product> getAllProducts () {
-        return this.products.getAllProducts();
+        return this.products().getAllProducts();
     }
 
     /**
      * Adds a product to the product catalog.
      * FUNCTION NOT IMPLEMENTED AT THE API BACKEND AT THE MOMENT!
      *
-     * @param product product we want to add.
+     * @param product product we want to add, must not be changed after
      */
     public void addProduct (Product product) {
-        this.products.addProduct(product);
+        this.write((Products products) -> products.addProduct(product));
+    }
+
+    /**
+     * Adds several products at once, cheaper than adding them one by one
+     *
+     * @param products The products to add, must not be changed after
+     */
+    public void addProducts (Collection<Product> products) {
+        this.write((Products catalog) -> products.forEach(catalog::addProduct));
     }
 
     /**
@@ -102,7 +213,7 @@ public class ProductCatalog {
      * @return A random product
      */
     public Product getRandomProduct () {
-        return this.products.getRandomProduct();
+        return this.products().getRandomProduct();
     }
 
     /**
@@ -110,31 +221,71 @@ public class ProductCatalog {
      *
      * @param barCode product's bar code
      */
-    public Product findProductByBarCode (Integer barCode) {
-        return this.products.findProductByBarCode(barCode);
+    public Product findProductByBarCode (int barCode) {
+        return this.products().findProductByBarCode(barCode);
     }
 
     public void setDiscounts (JSONArray products, long from, long until, float discount, boolean bonusOnly) {
 
-        Product[] productsArray = new Product[products.length()];
-        for (int index = 0; index < products.length(); index++) {
-            Product product = this.getProduct((int) products.get(index));
-            productsArray[index] = product;
-        }
-        this.setDiscounts(productsArray, from, until, discount, bonusOnly);
+        int[] barcodes = new int[products.length()];
+        for (int index = 0; index < products.length(); index++) barcodes[index] = (int) products.get(index);
+        this.write((Products catalog) -> {
+            for (int barcode : barcodes)
+                ProductCatalog.setDiscount(catalog, catalog.findProductByBarCode(barcode), from, until, discount, bonusOnly);
+        });
 
     }
 
     public void setDiscounts (String kw, long from, long until, float discount, boolean bonusOnly) {
 
-        Product[] products = this.products.findProductsKeyword(kw);
-        this.setDiscounts(products, from, until, discount, bonusOnly);
+        this.write((Products catalog) -> {
+            Product[] products = catalog.findProductsKeyword(kw);
+            if (products != null) for (Product product : products)
+                ProductCatalog.setDiscount(catalog, product, from, until, discount, bonusOnly);
+        });
+
+    }
+
+    /**
+     * Replaces a product with a discounted copy
+     *
+     * @param products The products being changed
+     * @param product  The product to discount, ignored if null
+     */
+    private static void setDiscount (Products products, Product product, long from, long until, float discount, boolean bonusOnly) {
+        if (product == null) return;
+        Product discounted = ProductCatalog.copy(product);
+        discounted.setDiscount(discount, from, until, bonusOnly);
+        products.addProduct(discounted);
+    }
 
+    /**
+     * Sets the price of a product
+     *
+     * @param barcode Barcode of the product
+     * @param price   The new price
+     * @return false if there's no such product
+     */
+    public boolean setPrice (int barcode, float price) {
+        // Products are never removed, one that exists now exists when the change is applied
+        if (!this.has(barcode)) return false;
+        this.setPrices(Map.of(barcode, price));
+        return true;
     }
 
-    private void setDiscounts (Product[] products, long from, long until, float discount, boolean bonusOnly) {
-        for (Product product : products)
-            product.setDiscount(discount, from, until, bonusOnly);
+    /**
+     * Sets the prices of several products at once
+     *
+     * @param prices The new price for each barcode, barcodes without a product are ignored
+     */
+    public void setPrices (Map<Integer, Float> prices) {
+        this.write((Products products) -> prices.forEach((Integer barcode, Float price) -> {
+            Product product = products.findProductByBarCode(barcode);
+            if (product == null) return;
+            Product priced = ProductCatalog.copy(product);
+            priced.setPrice(price);
+            products.addProduct(priced);
+        }));
     }
 
     /**
@@ -143,11 +294,11 @@ public class ProductCatalog {
      * @param product product we want to edit.
      */
     public void editProduct (Product product) {
-        this.products.editProduct(product);
+        this.write((Products products) -> products.editProduct(product));
     }
 
     public JSONArray toJson () {
-        return this.products.toJson();
+        return this.products().toJson();
     }
 
 }
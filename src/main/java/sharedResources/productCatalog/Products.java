@@ -7,14 +7,50 @@ import sharedResources.utils.HttpController;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Random;
 
 // TODO: Make class implement iterable?
 public class Products {
 
-    private final HashMap<Integer, Product> productList;
+    private final IntProductMap productList;
+    // HashMap<normalized keyword, barcodes of the products with the keyword>, kept up to date by addProduct,
+    // a product's keyword must only change by adding it again
+    private final HashMap<String, HashSet<Integer>> keywordIndex;
+    // Index of names and keywords for prefix searches, built on first use after the products change
+    private volatile PrefixIndex prefixIndex;
+    // Index of names and keywords for typo tolerant searches, built on first use after the products change
+    private volatile TrigramIndex trigramIndex;
 
-    public Products () {this.productList = new HashMap<>();}
+    public Products () {
+        this.productList = new IntProductMap();
+        this.keywordIndex = new HashMap<>();
+    }
+
+    /**
+     * Copies the products so the copy can be changed without changing the source.
+     * The products themselves are shared, a changed product must be added again as a new object.
+     *
+     * @param source The products to copy
+     */
+    Products (Products source) {
+        this.productList = new IntProductMap(source.productList);
+        this.keywordIndex = new HashMap<>(source.keywordIndex.size() * 2);
+        source.keywordIndex.forEach((String keyword, HashSet<Integer> barcodes) -> this.keywordIndex.put(keyword, new HashSet<>(barcodes)));
+        // The search indexes only hold barcodes, names and keywords so they stay valid until one of those changes
+        this.prefixIndex = source.prefixIndex;
+        this.trigramIndex = source.trigramIndex;
+    }
+
+    /**
+     * @param keyword A keyword
+     * @return The keyword in the form used by the keyword index
+     */
+    private static String normalize (String keyword) {
+        return keyword == null ? "" : keyword.toLowerCase(Locale.ROOT);
+    }
 
 
     /**
@@ -24,15 +60,12 @@ public class Products {
      * @return HashMap containing found products
      */
     HashMap<Integer, Product> findByKeyword (String keyword) {
-        if (keyword == null || keyword == "" || keyword.equals("*"))
-            return this.productList;
+        if (keyword == null || keyword.isEmpty() || keyword.equals("*"))
+            return this.productList.toHashMap();
         HashMap<Integer, Product> searchResult = new HashMap<>();
-        this.productList.forEach((k, v) -> {
-            if (v
-                    .getKeyword()
-                    .toLowerCase()
-                    .equals(keyword)) searchResult.put(v.getBarCode(), v);
-        });
+        HashSet<Integer> barcodes = this.keywordIndex.get(normalize(keyword));
+        if (barcodes != null)
+            for (Integer barcode : barcodes) searchResult.put(barcode, this.productList.get(barcode));
 
         return searchResult;
     }
@@ -43,16 +76,95 @@ public class Products {
      *
      * @param product product to add
      */
-    void addProduct (Product product) {this.productList.put(product.getBarCode(), product);}
+    void addProduct (Product product) {
+        Product previous = this.productList.put(product.getBarCode(), product);
+        // A new price or discount leaves the indexes as they are
+        if (previous != null && Objects.equals(previous.getName(), product.getName()) && Objects.equals(previous.getKeyword(), product.getKeyword()))
+            return;
+        if (previous != null) {
+            // The replaced product may have had another keyword
+            HashSet<Integer> barcodes = this.keywordIndex.get(normalize(previous.getKeyword()));
+            if (barcodes != null && barcodes.remove(previous.getBarCode()) && barcodes.isEmpty())
+                this.keywordIndex.remove(normalize(previous.getKeyword()));
+        }
+        this.keywordIndex
+                .computeIfAbsent(normalize(product.getKeyword()), (String keyword) -> new HashSet<>())
+                .add(product.getBarCode());
+        this.prefixIndex = null;
+        this.trigramIndex = null;
+    }
+
+    /**
+     * @return The prefix index of the current products
+     */
+    private PrefixIndex getPrefixIndex () {
+        PrefixIndex index = this.prefixIndex;
+        if (index == null) {
+            index = new PrefixIndex(this.productList.values());
+            this.prefixIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return The trigram index of the current products
+     */
+    private TrigramIndex getTrigramIndex () {
+        TrigramIndex index = this.trigramIndex;
+        if (index == null) {
+            index = new TrigramIndex(this.productList.values());
+            this.trigramIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Finds products whose name, a word in their name or keyword resembles the query
+     *
+     * @param query A name or keyword, possibly misspelled
+     * @param limit Maximum number of products to return
+     * @return The matching products, best match first
+     */
+    Product[] search (String query, int limit) {
+        return this.getTrigramIndex()
+                .search(query, limit)
+                .keySet()
+                .stream()
+                .map(this.productList::get)
+                .toArray(Product[]::new);
+    }
+
+    /**
+     * Finds products whose name, a word in their name or keyword starts with the prefix
+     *
+     * @param prefix Beginning of the name or keyword, case does not matter
+     * @param limit  Maximum number of products to return
+     * @return The matching products, ordered by the matching name or keyword
+     */
+    Product[] suggest (String prefix, int limit) {
+        return this.getPrefixIndex()
+                .find(prefix, limit)
+                .stream()
+                .map(this.productList::get)
+                .toArray(Product[]::new);
+    }
 
 
     /**
      * Looks up all the products that have been added to the productList.
      *
-     * @return a hashmap containing all the products inside the productList.
+     * @return a copy of the productList as a hashmap, changes to it don't change the catalog
      */
     HashMap<Integer, Product> getAllProducts () {
-        return this.productList;
+        return this.productList.toHashMap();
+    }
+
+    /**
+     * @param barCode Bar code to look for
+     * @return true if a product has the bar code
+     */
+    boolean has (int barCode) {
+        return this.productList.contains(barCode);
     }
 
 
@@ -60,8 +172,9 @@ public class Products {
      * Gets all the products from the Product Catalog API and turns them into Java objects.
      *
      * @param apiURL API URL.
+     * @return The fetched products, to be added
      */
-    void fetchProducts (String apiURL) {
+    static ArrayList<Product> fetchProducts (String apiURL) {
         HttpController http = new HttpController("GET", apiURL);
         http.sendRequest();
 
@@ -71,11 +184,12 @@ public class Products {
                 .getJSONObject("products")
                 .getJSONArray("product");
 
+        ArrayList<Product> products = new ArrayList<>(dataArray.length());
         for (Object raw : dataArray) {
             JSONObject p = (JSONObject) raw;
-            Product product = Product.fromJson(p);
-            this.addProduct(product);
+            products.add(Product.fromJson(p));
         }
+        return products;
 
     }
 
@@ -89,10 +203,10 @@ public class Products {
     /**
      * Returns a product from the product list if barcode matches.
      *
-     * @param barCode Integer barCode.
+     * @param barCode Bar code.
      * @return Returns a product from the product list if barcode matches. Else null.
      */
-    Product findProductByBarCode (Integer barCode) {
+    Product findProductByBarCode (int barCode) {
         return this.productList.get(barCode);
     }
 
@@ -101,24 +215,20 @@ public class Products {
      * @return The matching product otherwise null
      */
     Product[] findProductsKeyword (String kw) {
-        Product[] productArray = this.productList
-                .values()
-                .stream()
-                .filter((Product p) -> p
-                        .getKeyword()
-                        .toLowerCase()
-                        .equals(kw.toLowerCase()))
-                .toArray(Product[]::new);
-        if (productArray.length == 0) return null;
-        else return productArray;
+        HashSet<Integer> barcodes = this.keywordIndex.get(normalize(kw));
+        if (barcodes == null) return null;
+        Product[] productArray = new Product[barcodes.size()];
+        int i = 0;
+        for (Integer barcode : barcodes) productArray[i++] = this.productList.get(barcode);
+        return productArray;
     }
 
     Product getRandomProduct () {
-        ArrayList<Integer> barcodes = new ArrayList<>(this.productList.keySet());
-        int size = barcodes.size();
+        ArrayList<Product> products = this.productList.values();
+        int size = products.size();
         if (size == 0) return null;
         int random = new Random().nextInt(size);
-        return this.productList.get(random);
+        return products.get(random);
     }
 
     /**
@@ -126,15 +236,15 @@ public class Products {
      * @return The matching product otherwise null
      */
     Product findProductName (String kw) {
-        Product[] product = this.productList
-                .values()
-                .stream()
-                .filter((Product p) -> p
-                        .getName()
-                        .toLowerCase()
-                        .equals(kw))
-                .toArray(Product[]::new);
-        return product.length > 0 ? product[0] : null;
+        String name = PrefixIndex.normalize(kw);
+        // The term also matches words within names and keywords, only take a whole name
+        for (Integer barcode : this.getPrefixIndex().findTerm(name)) {
+            Product product = this.productList.get(barcode);
+            if (PrefixIndex
+                    .normalize(product.getName())
+                    .equals(name)) return product;
+        }
+        return null;
     }
 
     /**
@@ -0,0 +1,150 @@
+package sharedResources.productCatalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Finds products by names and keywords resembling a query, tolerating typos.
+ * The name, each word of the name and the keyword of every product are indexed as documents by their trigrams,
+ * the three letter sequences in them. A query scores the documents sharing trigrams with it by the Dice coefficient,
+ * twice the shared trigrams over the trigrams in both, and ranks each product by its best scoring document.
+ * Only the documents sharing a trigram with the query are visited. Built once from the products and not changed after.
+ */
+class TrigramIndex {
+
+    // Lowest score a product needs to be returned
+    private static final float MIN_SCORE = 0.3f;
+
+    // Barcode and number of distinct trigrams of each document
+    private final int[] barcodes;
+    private final int[] grams;
+    // HashMap<trigram, documents containing the trigram in ascending order>
+    private final HashMap<Long, int[]> postings;
+
+    /**
+     * @param products The products to index
+     */
+    TrigramIndex (Collection<Product> products) {
+        // Collect the documents
+        int count = 0;
+        String[] texts = new String[products.size() * 4];
+        int[] owners = new int[texts.length];
+        ArrayList<String> fields = new ArrayList<>();
+        for (Product product : products) {
+            String name = PrefixIndex.normalize(product.getName());
+            fields.clear();
+            fields.add(name);
+            fields.add(PrefixIndex.normalize(product.getKeyword()));
+            // A name of one word is already indexed as a whole
+            String[] words = name.split(" +");
+            if (words.length > 1) Collections.addAll(fields, words);
+            for (String document : fields) {
+                if (document.isEmpty()) continue;
+                if (count == texts.length) {
+                    texts = Arrays.copyOf(texts, count * 2 + 16);
+                    owners = Arrays.copyOf(owners, count * 2 + 16);
+                }
+                texts[count] = document;
+                owners[count++] = product.getBarCode();
+            }
+        }
+
+        // Append each document to the postings of its trigrams, the first slot of each holds the length while building
+        this.barcodes = Arrays.copyOf(owners, count);
+        this.grams = new int[count];
+        this.postings = new HashMap<>();
+        for (int document = 0; document < count; document++) {
+            long[] trigrams = TrigramIndex.trigrams(texts[document]);
+            this.grams[document] = trigrams.length;
+            for (long trigram : trigrams) {
+                int[] documents = this.postings.get(trigram);
+                if (documents == null) {
+                    documents = new int[4];
+                    this.postings.put(trigram, documents);
+                } else if (documents[0] + 1 == documents.length) {
+                    documents = Arrays.copyOf(documents, documents.length * 2);
+                    this.postings.put(trigram, documents);
+                }
+                documents[++documents[0]] = document;
+            }
+        }
+        this.postings.replaceAll((Long trigram, int[] documents) -> Arrays.copyOfRange(documents, 1, documents[0] + 1));
+    }
+
+    /**
+     * @param query A name or keyword, possibly misspelled
+     * @param limit Maximum number of barcodes to return
+     * @return Barcodes of the best matching products with their scores from 0 to 1, best first
+     */
+    LinkedHashMap<Integer, Float> search (String query, int limit) {
+        long[] queryGrams = TrigramIndex.trigrams(PrefixIndex.normalize(query));
+        LinkedHashMap<Integer, Float> found = new LinkedHashMap<>();
+        if (queryGrams.length == 0 || limit < 1) return found;
+
+        // Gather the postings of the query trigrams, so the work and memory grow with the matches, not the documents
+        int[][] matches = new int[queryGrams.length][];
+        int total = 0;
+        for (int i = 0; i < queryGrams.length; i++) {
+            matches[i] = this.postings.get(queryGrams[i]);
+            if (matches[i] != null) total += matches[i].length;
+        }
+        int[] visits = new int[total];
+        int visited = 0;
+        for (int[] documents : matches) {
+            if (documents == null) continue;
+            System.arraycopy(documents, 0, visits, visited, documents.length);
+            visited += documents.length;
+        }
+        // A document appears once for each distinct trigram it shares with the query
+        Arrays.sort(visits);
+
+        // Best score of each product
+        HashMap<Integer, Float> scores = new HashMap<>();
+        for (int from = 0, to; from < total; from = to) {
+            int document = visits[from];
+            to = from + 1;
+            while (to < total && visits[to] == document) to++;
+            float score = 2f * (to - from) / (queryGrams.length + this.grams[document]);
+            if (score >= MIN_SCORE) scores.merge(this.barcodes[document], score, Math::max);
+        }
+
+        // Keep the best, the worst of them at the head
+        PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, (Integer a, Integer b) -> {
+            int order = Float.compare(scores.get(a), scores.get(b));
+            return order != 0 ? order : Integer.compare(b, a);
+        });
+        for (Integer barcode : scores.keySet()) {
+            best.add(barcode);
+            if (best.size() > limit) best.poll();
+        }
+        Integer[] ranked = new Integer[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) ranked[i] = best.poll();
+        for (Integer barcode : ranked) found.put(barcode, scores.get(barcode));
+        return found;
+    }
+
+    /**
+     * @param text Normalized text
+     * @return The distinct trigrams of the text padded with spaces, each packed into a long, in ascending order
+     */
+    private static long[] trigrams (String text) {
+        if (text.isEmpty()) return new long[0];
+        // Two spaces in front so the first letters count more, typos are rarely there
+        String padded = "  " + text + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++)
+            trigrams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        // Sorting brings repeated trigrams next to each other
+        Arrays.sort(trigrams);
+        int count = 0;
+        for (int i = 0; i < trigrams.length; i++)
+            if (count == 0 || trigrams[count - 1] != trigrams[i]) trigrams[count++] = trigrams[i];
+        return Arrays.copyOf(trigrams, count);
+    }
+
+}
@@ -3,6 +3,9 @@ package sharedResources.structures;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 
 /**
@@ -94,6 +97,22 @@ public class Customer {
         return this.birthDate;
     }
 
+    /**
+     * @param date The date at which to get the age
+     * @return Age of the customer in whole years, -1 if the birth date is unknown
+     */
+    public int getAge (LocalDate date) {
+        if (this.birthDate == null || this.birthDate.length() < 10) return -1;
+        try {
+            // The birth date may carry a time after the date
+            return Period
+                    .between(LocalDate.parse(this.birthDate.substring(0, 10)), date)
+                    .getYears();
+        } catch (DateTimeParseException ex) {
+            return -1;
+        }
+    }
+
     private Customer setAddress (JSONObject data) {
         this.address = new Address(data);
         return this;
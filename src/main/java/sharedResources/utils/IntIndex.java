@@ -0,0 +1,142 @@
+package sharedResources.utils;
+
+/**
+ * Maps int keys, such as barcodes, to positions in arrays kept by the caller. The keys are kept in a primitive array
+ * using open addressing with linear probing, so looking up a key doesn't box it. Shared by the maps and counters
+ * keyed by barcode, which keep their keys and values in dense arrays by position. Not thread safe.
+ */
+public class IntIndex {
+
+    private int[] keys;
+    // Position + 1 by slot, 0 for empty slots
+    private int[] positions;
+    private int size;
+
+    public IntIndex () {
+        this(16);
+    }
+
+    /**
+     * @param expected Number of keys expected, to avoid growing
+     */
+    public IntIndex (int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) << 1;
+        this.keys = new int[capacity];
+        this.positions = new int[capacity];
+    }
+
+    /**
+     * @param source The index to copy
+     */
+    public IntIndex (IntIndex source) {
+        this.keys = source.keys.clone();
+        this.positions = source.positions.clone();
+        this.size = source.size;
+    }
+
+    /**
+     * @param key Key to look up
+     * @return The position of the key, -1 if it isn't mapped
+     */
+    public int get (int key) {
+        return this.positions[this.slot(key)] - 1;
+    }
+
+    /**
+     * Maps a key to a position, unless it's already mapped
+     *
+     * @param key      The key
+     * @param position The position, not negative
+     * @return The position the key was already mapped to, -1 if it's now mapped to the given one
+     */
+    public int putIfAbsent (int key, int position) {
+        int slot = this.slot(key);
+        if (this.positions[slot] != 0) return this.positions[slot] - 1;
+        if ((this.size + 1) * 4 > this.keys.length * 3) {
+            this.grow();
+            slot = this.slot(key);
+        }
+        this.keys[slot] = key;
+        this.positions[slot] = position + 1;
+        this.size++;
+        return -1;
+    }
+
+    /**
+     * Maps a key to a position, replacing any position it was mapped to
+     *
+     * @param key      The key
+     * @param position The position, not negative
+     */
+    public void put (int key, int position) {
+        if (this.putIfAbsent(key, position) >= 0) this.positions[this.slot(key)] = position + 1;
+    }
+
+    /**
+     * Removes a key, moving back the keys probed past it so they can still be found
+     *
+     * @param key The key
+     * @return The position the key was mapped to, -1 if it wasn't mapped
+     */
+    public int remove (int key) {
+        int slot = this.slot(key);
+        int position = this.positions[slot] - 1;
+        if (position < 0) return -1;
+        int mask = this.keys.length - 1;
+        this.positions[slot] = 0;
+        for (int next = (slot + 1) & mask; this.positions[next] != 0; next = (next + 1) & mask) {
+            int home = IntIndex.hash(this.keys[next]) & mask;
+            // Only move keys whose probing started at or before the emptied slot
+            if (((next - home) & mask) < ((next - slot) & mask)) continue;
+            this.keys[slot] = this.keys[next];
+            this.positions[slot] = this.positions[next];
+            this.positions[next] = 0;
+            slot = next;
+        }
+        this.size--;
+        return position;
+    }
+
+    /**
+     * @return Number of mapped keys
+     */
+    public int size () {
+        return this.size;
+    }
+
+    /**
+     * @param key Key to find
+     * @return The slot holding the key, or the empty slot where it would go
+     */
+    private int slot (int key) {
+        int mask = this.keys.length - 1;
+        int slot = IntIndex.hash(key) & mask;
+        while (this.positions[slot] != 0 && this.keys[slot] != key) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow () {
+        int[] keys = this.keys;
+        int[] positions = this.positions;
+        this.keys = new int[keys.length * 2];
+        this.positions = new int[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (positions[i] == 0) continue;
+            int slot = this.slot(keys[i]);
+            this.keys[slot] = keys[i];
+            this.positions[slot] = positions[i];
+        }
+    }
+
+    /**
+     * Spreads sequential keys such as barcodes over the table
+     *
+     * @param key Key to hash
+     * @return The hash
+     */
+    private static int hash (int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
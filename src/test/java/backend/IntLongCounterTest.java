@@ -0,0 +1,82 @@
+package backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+class IntLongCounterTest {
+
+    @Test
+    void incrementAndGrow () {
+        IntLongCounter counter = new IntLongCounter(2);
+        for (int i = 0; i < 10000; i++) counter.increment(i % 1000);
+        counter.increment(-5);
+        assert counter.size() == 1001;
+        assert counter.get(0) == 10;
+        assert counter.get(999) == 10;
+        assert counter.get(-5) == 1;
+        assert counter.get(1000) == 0;
+    }
+
+    @Test
+    void largeCounts () {
+        IntLongCounter counter = new IntLongCounter();
+        counter.add(1, Integer.MAX_VALUE);
+        counter.add(1, Integer.MAX_VALUE);
+        assert counter.get(1) == 2L * Integer.MAX_VALUE;
+    }
+
+    @Test
+    void writeAndRead () throws IOException {
+        IntLongCounter counter = new IntLongCounter();
+        for (int i = 0; i < 100; i++) counter.add(i * 31, i + 1L << 33);
+        counter.increment(-1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        counter.writeTo(new DataOutputStream(bytes));
+
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        IntLongCounter read = IntLongCounter.readFrom(in);
+        assert !in.hasRemaining();
+        assert read.size() == 101;
+        for (int i = 0; i < 100; i++) assert read.get(i * 31) == i + 1L << 33;
+        assert read.get(-1) == 1;
+        assert IntLongCounter
+                .readFrom(ByteBuffer.wrap(new byte[]{0, 0, 0, 0}))
+                .size() == 0;
+    }
+
+    @Test
+    void merge () {
+        IntLongCounter first = new IntLongCounter();
+        first.increment(1);
+        first.add(2, 5);
+        IntLongCounter second = new IntLongCounter();
+        second.add(2, 3);
+        second.increment(3);
+
+        first.merge(second);
+        assert first.size() == 3;
+        assert first.get(1) == 1;
+        assert first.get(2) == 8;
+        assert first.get(3) == 1;
+    }
+
+    @Test
+    void toJson () {
+        IntLongCounter counter = new IntLongCounter();
+        assert counter
+                .toJSONString()
+                .equals("{}");
+        counter.add(12345, 2);
+        assert counter
+                .toJSONString()
+                .equals("{\"12345\":2}");
+        counter.increment(7);
+        String json = counter.toJSONString();
+        assert json.contains("\"7\":1") && json.contains("\"12345\":2") && json.length() == 17;
+    }
+
+}
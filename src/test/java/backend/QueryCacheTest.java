@@ -0,0 +1,67 @@
+package backend;
+
+import org.junit.jupiter.api.Test;
+
+class QueryCacheTest {
+
+    @Test
+    void invalidatesOnlyOverlappingRanges () {
+        QueryCache cache = new QueryCache(1000);
+        cache.put("closed", 100, 200, "[1]");
+        cache.put("open", 200, 300, "[2]");
+        cache.put("all", Long.MIN_VALUE, Long.MAX_VALUE, "[3]");
+
+        cache.invalidate(250, 251);
+        assert cache
+                .get("closed")
+                .equals("[1]");
+        assert cache.get("open") == null;
+        assert cache.get("all") == null;
+
+        // The end of a range is exclusive
+        cache.invalidate(200, 201);
+        assert cache.get("closed") != null;
+        cache.invalidate(100, 101);
+        assert cache.get("closed") == null;
+        assert cache.size() == 0;
+    }
+
+    @Test
+    void invalidatesBatchSpan () {
+        QueryCache cache = new QueryCache(1000);
+        cache.put("before", 0, 100, "[1]");
+        cache.put("inside", 120, 130, "[2]");
+        cache.put("edge", 140, 200, "[3]");
+        cache.put("after", 150, 300, "[4]");
+
+        // A batch of sales from 100 up to 149
+        cache.invalidate(100, 150);
+        assert cache.get("before") != null;
+        assert cache.get("inside") == null;
+        assert cache.get("edge") == null;
+        assert cache.get("after") != null;
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed () {
+        QueryCache cache = new QueryCache(10);
+        cache.put("a", 0, 1, "aaaa");
+        cache.put("b", 0, 1, "bbbb");
+        cache.get("a");
+        cache.put("c", 0, 1, "cccc");
+        assert cache.get("b") == null;
+        assert cache.get("a") != null;
+        assert cache.get("c") != null;
+
+        // Replacing a result frees the length of the old one
+        cache.put("c", 0, 1, "cc");
+        cache.put("d", 0, 1, "dd");
+        assert cache.size() == 3;
+
+        // Too large to cache at all
+        cache.put("e", 0, 1, "eeeeeeeeeee");
+        assert cache.get("e") == null;
+        assert cache.size() == 3;
+    }
+
+}
@@ -0,0 +1,54 @@
+package backend;
+
+import backend.storage.Demographics;
+import backend.storage.PartitionSize;
+import backend.storage.SalesPartition;
+import backend.storage.SalesStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class QueryExecutorTest {
+
+    private static IntLongCounter popular (QueryExecutor executor, List<SalesStore.Slice> slices) {
+        return executor.aggregate(slices, IntLongCounter::new,
+                (IntLongCounter counter, SalesPartition partition, int row) -> counter.increment(partition.getBarcode(row)),
+                (IntLongCounter a, IntLongCounter b) -> {
+                    a.merge(b);
+                    return a;
+                });
+    }
+
+    @Test
+    void parallelMatchesSequential () {
+        SalesStore store = new SalesStore(PartitionSize.HOUR);
+        for (int i = 0; i < 20000; i++)
+            store.append(i * 7L, i + 1, i % 97, 100, 2400, SalesStore.NO_CUSTOMER, 1, Demographics.NONE);
+        List<SalesStore.Slice> slices = store.slices(1000, 130000);
+
+        IntLongCounter sequential = popular(new QueryExecutor(1, 100), slices);
+        QueryExecutor parallel = new QueryExecutor(4, 100);
+        IntLongCounter split = popular(parallel, slices);
+        parallel.close();
+
+        assert sequential.size() == 97;
+        assert split.size() == sequential.size();
+        long total = 0;
+        for (int barcode = 0; barcode < 97; barcode++) {
+            assert split.get(barcode) == sequential.get(barcode);
+            total += split.get(barcode);
+        }
+        // Rows with 1000 <= i * 7 < 130000
+        assert total == 18571 - 142;
+    }
+
+    @Test
+    void runsAfterClose () {
+        SalesStore store = new SalesStore(PartitionSize.DAY);
+        store.append(10, 1, 5, 100, 2400, SalesStore.NO_CUSTOMER, 1, Demographics.NONE);
+        QueryExecutor executor = new QueryExecutor(2, 1);
+        executor.close();
+        assert popular(executor, store.slices(0, 100)).get(5) == 1;
+    }
+
+}
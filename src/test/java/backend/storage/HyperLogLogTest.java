@@ -0,0 +1,85 @@
+package backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+class HyperLogLogTest {
+
+    private static boolean near (long estimate, long actual) {
+        return Math.abs(estimate - actual) <= actual * 0.05;
+    }
+
+    @Test
+    void estimatesDistinctCount () {
+        HyperLogLog sketch = new HyperLogLog();
+        assert sketch.estimate() == 0;
+        for (int i = 0; i < 100; i++) sketch.add(i % 10);
+        assert sketch.estimate() == 10;
+
+        for (int i = 0; i < 100000; i++) sketch.add(i);
+        assert near(sketch.estimate(), 100000);
+    }
+
+    @Test
+    void mergeEstimatesUnion () {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 30000; i++) first.add(i);
+        for (int i = 20000; i < 50000; i++) second.add(i);
+        first.merge(second);
+        assert near(first.estimate(), 50000);
+    }
+
+    @Test
+    void storeWidensToPartitions () {
+        SalesStore store = new SalesStore(PartitionSize.DAY);
+        long day = 60 * 60 * 24;
+        for (int customer = 0; customer < 1000; customer++) {
+            store.countCustomer(day * 10 + customer, customer, List.of("Dairy"));
+            store.countCustomer(day * 11 + customer, customer + 500, customer % 2 == 0 ? List.of("Bread") : List.of());
+        }
+        assert near(store.distinctCustomers(day * 10, day * 11, null), 1000);
+        assert near(store.distinctCustomers(day * 10 + 500, day * 11 + 1, null), 1500);
+        assert near(store.distinctCustomers(day * 10, day * 12, "Bread"), 500);
+        assert store.distinctCustomers(day * 11, day * 12, "Dairy") == 0;
+        assert near(store.distinctCustomers(day * 10, day * 11, "DAIRY"), 1000);
+    }
+
+    @Test
+    void sparseUntilManyRegistersUsed () throws IOException {
+        HyperLogLog small = new HyperLogLog();
+        HyperLogLog large = new HyperLogLog();
+        for (int i = 0; i < 50; i++) small.add(i);
+        for (int i = 0; i < 20000; i++) large.add(i);
+        assert small.estimate() == 50;
+        assert this
+                .write(small)
+                .length < 4096 / 4;
+        assert this
+                .write(large)
+                .length > 4096;
+
+        HyperLogLog read = new HyperLogLog();
+        read.readFrom(ByteBuffer.wrap(this.write(small)));
+        assert read.estimate() == 50;
+
+        // Sparse into dense and dense into sparse give the same union
+        HyperLogLog union = new HyperLogLog(small);
+        union.merge(large);
+        large.merge(small);
+        assert union.estimate() == large.estimate();
+        assert near(union.estimate(), 20000);
+    }
+
+    private byte[] write (HyperLogLog sketch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,240 @@
+package backend.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+class SalesJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private List<String> replay (SalesJournal journal) throws IOException {
+        List<String> records = new ArrayList<>();
+        journal.replay((long sequence, byte[] payload) -> records.add(sequence + ":" + new String(payload, StandardCharsets.UTF_8)));
+        return records;
+    }
+
+    @Test
+    void appendAndReplay () throws IOException {
+        SalesJournal journal = new SalesJournal(this.directory, 1024, 10);
+        assert this
+                .replay(journal)
+                .isEmpty();
+        assert journal.append("first".getBytes(StandardCharsets.UTF_8)) == 1;
+        assert journal.append("second".getBytes(StandardCharsets.UTF_8)) == 2;
+        journal.close();
+
+        SalesJournal reopened = new SalesJournal(this.directory, 1024, 10);
+        List<String> records = this.replay(reopened);
+        assert records.equals(List.of("1:first", "2:second"));
+        assert reopened.append("third".getBytes(StandardCharsets.UTF_8)) == 3;
+        reopened.close();
+    }
+
+    @Test
+    void rollsSegments () throws IOException {
+        SalesJournal journal = new SalesJournal(this.directory, 64, 10);
+        this.replay(journal);
+        for (int i = 0; i < 10; i++)
+            journal.append(("record " + i).getBytes(StandardCharsets.UTF_8));
+        journal.close();
+
+        try (Stream<Path> files = Files.list(this.directory)) {
+            assert files.count() > 1;
+        }
+        SalesJournal reopened = new SalesJournal(this.directory, 64, 10);
+        List<String> records = this.replay(reopened);
+        reopened.close();
+        assert records.size() == 10;
+        assert records
+                .get(9)
+                .equals("10:record 9");
+    }
+
+    @Test
+    void truncatesTornTail () throws IOException {
+        SalesJournal journal = new SalesJournal(this.directory, 1024, 10);
+        this.replay(journal);
+        journal.append("complete".getBytes(StandardCharsets.UTF_8));
+        journal.close();
+
+        // Simulate a crash in the middle of writing a record
+        Path segment;
+        try (Stream<Path> files = Files.list(this.directory)) {
+            segment = files
+                    .findFirst()
+                    .orElseThrow();
+        }
+        Files.write(segment, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+
+        SalesJournal reopened = new SalesJournal(this.directory, 1024, 10);
+        assert this
+                .replay(reopened)
+                .equals(List.of("1:complete"));
+        assert reopened.append("next".getBytes(StandardCharsets.UTF_8)) == 2;
+        reopened.close();
+
+        SalesJournal restarted = new SalesJournal(this.directory, 1024, 10);
+        assert this
+                .replay(restarted)
+                .equals(List.of("1:complete", "2:next"));
+        restarted.close();
+    }
+
+    @Test
+    void appendBatch () throws IOException {
+        SalesJournal journal = new SalesJournal(this.directory, 1024, 10);
+        this.replay(journal);
+        journal.append("single".getBytes(StandardCharsets.UTF_8));
+        long first = journal.append(List.of("a".getBytes(StandardCharsets.UTF_8), "b".getBytes(StandardCharsets.UTF_8)));
+        assert first == 2;
+        assert journal.getNextSequence() == 4;
+        journal.close();
+
+        SalesJournal reopened = new SalesJournal(this.directory, 1024, 10);
+        assert this
+                .replay(reopened)
+                .equals(List.of("1:single", "2:a", "3:b"));
+        reopened.close();
+    }
+
+    @Test
+    void replayAfterSnapshot () throws IOException {
+        SalesJournal journal = new SalesJournal(this.directory, 64, 10);
+        this.replay(journal);
+        for (int i = 0; i < 10; i++)
+            journal.append(("record " + i).getBytes(StandardCharsets.UTF_8));
+        journal.close();
+
+        SalesJournal reopened = new SalesJournal(this.directory, 64, 10);
+        List<String> records = new ArrayList<>();
+        long count = reopened.replay(7, (long sequence, byte[] payload) -> records.add(sequence + ":" + new String(payload, StandardCharsets.UTF_8)));
+        assert count == 3;
+        assert records.equals(List.of("8:record 7", "9:record 8", "10:record 9"));
+        assert reopened.append("next".getBytes(StandardCharsets.UTF_8)) == 11;
+        reopened.close();
+    }
+
+    @Test
+    void concurrentAppends () throws Exception {
+        SalesJournal journal = new SalesJournal(this.directory, 4096, 0);
+        this.replay(journal);
+        ExecutorService lanes = Executors.newFixedThreadPool(8);
+        List<Future<Long>> sequences = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            byte[] payload = ("sale " + i).getBytes(StandardCharsets.UTF_8);
+            sequences.add(lanes.submit(() -> journal.append(payload)));
+        }
+        Set<Long> distinct = new HashSet<>();
+        for (Future<Long> sequence : sequences) distinct.add(sequence.get());
+        lanes.shutdown();
+        journal.close();
+        assert distinct.size() == 400;
+        assert distinct.contains(1L) && distinct.contains(400L);
+
+        SalesJournal reopened = new SalesJournal(this.directory, 4096, 0);
+        assert this
+                .replay(reopened)
+                .size() == 400;
+        assert reopened.append("next".getBytes(StandardCharsets.UTF_8)) == 401;
+        reopened.close();
+    }
+
+    @Test
+    void readWhileOpen () throws IOException {
+        SalesJournal journal = new SalesJournal(this.directory, 2048, 10);
+        this.replay(journal);
+        for (int i = 0; i < 300; i++)
+            journal.append(("record " + i).getBytes(StandardCharsets.UTF_8));
+        try (Stream<Path> files = Files.list(this.directory)) {
+            assert files.count() > 1;
+        }
+
+        List<String> range = new ArrayList<>();
+        journal.read(95, 205, (long sequence, byte[] payload) -> range.add(sequence + ":" + new String(payload, StandardCharsets.UTF_8)));
+        assert range.size() == 110;
+        assert range
+                .get(0)
+                .equals("96:record 95");
+        assert range
+                .get(109)
+                .equals("205:record 204");
+
+        // Not yet written records are left out
+        List<Long> tail = new ArrayList<>();
+        journal.read(290, Long.MAX_VALUE, (long sequence, byte[] payload) -> tail.add(sequence));
+        assert tail.equals(List.of(291L, 292L, 293L, 294L, 295L, 296L, 297L, 298L, 299L, 300L));
+
+        List<String> picked = new ArrayList<>();
+        journal.read(new long[] { 1, 64, 65, 250, 300, 301 }, (long sequence, byte[] payload) -> picked.add(sequence + ":" + new String(payload, StandardCharsets.UTF_8)));
+        assert picked.equals(List.of("1:record 0", "64:record 63", "65:record 64", "250:record 249", "300:record 299"));
+        journal.close();
+    }
+
+    @Test
+    void interruptedAppendsLeaveNoGaps () throws IOException {
+        SalesJournal journal = new SalesJournal(this.directory, 4096, 10);
+        this.replay(journal);
+        SequencedBuffer<Long> pending = new SequencedBuffer<>(64, journal.getNextSequence());
+        int abandoned = 0;
+        for (int i = 0; i < 200; i++) {
+            Thread
+                    .currentThread()
+                    .interrupt();
+            try {
+                long sequence = journal.append(("sale " + i).getBytes(StandardCharsets.UTF_8));
+                assert pending.offer(sequence, sequence);
+            } catch (InterruptedIOException ex) {
+                abandoned++;
+            }
+            assert Thread.interrupted();
+            pending.drain((Long sequence) -> { });
+        }
+
+        // Sales recorded afterwards are still drained, no sequence number was left behind
+        long next = journal.append("later".getBytes(StandardCharsets.UTF_8));
+        assert pending.offer(next, next);
+        assert pending.drain((Long sequence) -> { }) == 1;
+        assert next == 201 - abandoned;
+        journal.close();
+    }
+
+    @Test
+    void keepsWritingWhenRollFails () throws IOException {
+        SalesJournal journal = new SalesJournal(this.directory, 64, 10);
+        this.replay(journal);
+        journal.append("record 0".getBytes(StandardCharsets.UTF_8));
+        journal.append("record 1".getBytes(StandardCharsets.UTF_8));
+        // A leftover file where the next segment should go
+        Path leftover = this.directory.resolve(String.format("%020d.journal", 3));
+        Files.write(leftover, new byte[] { 1 });
+        for (int i = 2; i < 6; i++)
+            assert journal.append(("record " + i).getBytes(StandardCharsets.UTF_8)) == i + 1;
+        journal.close();
+
+        Files.delete(leftover);
+        SalesJournal reopened = new SalesJournal(this.directory, 64, 10);
+        List<String> records = this.replay(reopened);
+        reopened.close();
+        assert records.size() == 6;
+        assert records
+                .get(5)
+                .equals("6:record 5");
+    }
+
+}
@@ -0,0 +1,187 @@
+package backend.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+class SalesStoreTest {
+
+    private static final long DAY = 60 * 60 * 24;
+
+    private static final byte WOMAN_34 = Demographics.of("FEMALE", 34);
+
+    private SalesStore store;
+
+    @BeforeEach
+    void setUp () {
+        this.store = new SalesStore(PartitionSize.DAY);
+        // Three sales on three consecutive days
+        this.store.append(DAY * 10 + 100, 1, 111, 250, 2400, SalesStore.NO_CUSTOMER, 1, Demographics.NONE);
+        this.store.append(DAY * 11 + 100, 2, 222, 100, 2400, 5, 1, WOMAN_34);
+        this.store.append(DAY * 11 + 200, 3, 111, 250, 2400, 5, 2, WOMAN_34);
+        this.store.append(DAY * 12 + 100, 4, 333, 999, 2400, SalesStore.NO_CUSTOMER, 2, Demographics.NONE);
+    }
+
+    @Test
+    void partitionsByDay () {
+        assert this.store
+                .partitions()
+                .size() == 3;
+        assert this.store
+                .partitions(DAY * 11, DAY * 12)
+                .size() == 1;
+        assert this.store
+                .partitions(DAY * 11 + 150, DAY * 13)
+                .size() == 2;
+        assert this.store
+                .partitions(DAY * 13, DAY * 11)
+                .isEmpty();
+    }
+
+    @Test
+    void scanRange () {
+        ArrayList<Integer> barcodes = new ArrayList<>();
+        this.store.scan(DAY * 11 + 150, DAY * 12 + 100, (SalesPartition partition, int row) -> barcodes.add(partition.getBarcode(row)));
+        assert barcodes.size() == 1;
+        assert barcodes.get(0) == 111;
+
+        barcodes.clear();
+        this.store.scan(0, Long.MAX_VALUE, (SalesPartition partition, int row) -> barcodes.add(partition.getBarcode(row)));
+        assert barcodes.size() == 4;
+    }
+
+    @Test
+    void columns () {
+        SalesPartition partition = this.store
+                .partitions(DAY * 11, DAY * 12)
+                .iterator()
+                .next();
+        assert partition.getStart() == DAY * 11;
+        assert partition.getEnd() == DAY * 12;
+        assert partition.size() == 2;
+        assert partition.getPrice(0) == 100;
+        assert partition.getCustomer(1) == 5;
+        assert partition.getLane(1) == 2;
+    }
+
+    @Test
+    void growsBeyondInitialCapacity () {
+        for (int i = 0; i < 1000; i++)
+            this.store.append(DAY * 20 + i, i, i, i, 2400, SalesStore.NO_CUSTOMER, 0, Demographics.NONE);
+        int[] count = new int[1];
+        this.store.scan(DAY * 20, DAY * 21, (SalesPartition partition, int row) -> count[0]++);
+        assert count[0] == 1000;
+    }
+
+    @Test
+    void keepsLateSalesInOrder () {
+        this.store.append(DAY * 11 + 150, 5, 444, 50, 2400, SalesStore.NO_CUSTOMER, 3, Demographics.NONE);
+        this.store.settle();
+        SalesPartition partition = this.store
+                .partitions(DAY * 11, DAY * 12)
+                .iterator()
+                .next();
+        assert partition.size() == 3;
+        assert partition.getBarcode(1) == 444;
+        assert partition.getSequence(1) == 5;
+        assert partition.getLane(2) == 2;
+        assert partition.lowerBound(DAY * 11 + 150) == 1;
+        assert partition.upperBound(DAY * 11 + 150) == 2;
+        assert partition.lowerBound(DAY * 12) == 3;
+
+        ArrayList<Integer> barcodes = new ArrayList<>();
+        this.store.scan(DAY * 11 + 101, DAY * 11 + 200, (SalesPartition p, int row) -> barcodes.add(p.getBarcode(row)));
+        assert barcodes.size() == 1;
+        assert barcodes.get(0) == 444;
+    }
+
+    @Test
+    void settlesReversedBatch () {
+        SalesStore store = new SalesStore(PartitionSize.DAY);
+        for (int i = 0; i < 1000; i++)
+            store.append(DAY * 20 + 1000 - i, i + 1, i, 100, 2400, SalesStore.NO_CUSTOMER, 1, Demographics.NONE);
+        // Same timestamp as a late row, appended after it
+        store.append(DAY * 20 + 500, 1001, -1, 100, 2400, SalesStore.NO_CUSTOMER, 1, Demographics.NONE);
+        store.settle();
+
+        SalesPartition partition = store
+                .partitions(DAY * 20, DAY * 21)
+                .iterator()
+                .next();
+        assert partition.size() == 1001;
+        for (int row = 1; row < partition.size(); row++)
+            assert partition.getTimestamp(row - 1) <= partition.getTimestamp(row);
+        int row = partition.lowerBound(DAY * 20 + 500);
+        assert partition.getBarcode(row) == 500;
+        assert partition.getBarcode(row + 1) == -1;
+        assert partition.getSequence(partition.size() - 1) == 1;
+    }
+
+    @Test
+    void top () {
+        this.store.append(DAY * 12 + 200, 5, 333, 999, 2400, SalesStore.NO_CUSTOMER, 2, Demographics.NONE);
+        this.store.append(DAY * 12 + 300, 6, 333, 999, 2400, SalesStore.NO_CUSTOMER, 2, Demographics.NONE);
+
+        LinkedHashMap<Integer, Long> top = this.store.top(0, Long.MAX_VALUE, 2);
+        assert top.size() == 2;
+        assert top
+                .keySet()
+                .iterator()
+                .next() == 333;
+        assert top.get(333) == 3;
+        assert top.get(111) == 2;
+
+        // Range cutting through the middle of a partition
+        top = this.store.top(DAY * 11 + 150, DAY * 12 + 250, 10);
+        assert top.size() == 2;
+        assert top.get(111) == 1;
+        assert top.get(333) == 2;
+    }
+
+    @Test
+    void demographics () {
+        this.store.append(DAY * 12 + 200, 5, 111, 250, 2400, 6, 1, Demographics.of("MALE", 95));
+        HashMap<Integer, long[]> counts = this.store.demographics(DAY * 10, DAY * 12 + 150);
+        assert counts.size() == 2;
+        assert counts.get(111)[WOMAN_34] == 1;
+        assert counts.get(222)[WOMAN_34] == 1;
+
+        counts = this.store.demographics(DAY * 10, DAY * 13);
+        byte man = Demographics.of("MALE", 95);
+        assert counts.get(111)[man] == 1;
+        assert Demographics.sex(man) == Demographics.MALE;
+        assert Demographics.minAge(man) == 90;
+        assert Demographics.sex(WOMAN_34) == Demographics.FEMALE;
+        assert Demographics.minAge(WOMAN_34) == 30 && Demographics.maxAge(WOMAN_34) == 39;
+        assert Demographics.minAge(Demographics.of(null, -1)) == -1;
+    }
+
+    @Test
+    void revenue () {
+        this.store.append(DAY * 11 + 3700, 5, 444, 500, 1400, SalesStore.NO_CUSTOMER, 1, Demographics.NONE);
+        TreeMap<Long, HashMap<Integer, long[]>> daily = this.store.revenue(DAY * 10, DAY * 13, PartitionSize.DAY);
+        assert daily
+                .keySet()
+                .equals(Set.of(DAY * 10, DAY * 11, DAY * 12));
+        HashMap<Integer, long[]> day = daily.get(DAY * 11);
+        assert day.get(2400)[0] == 350;
+        // 100 and 250 cents at 24% include 19 and 48 cents VAT
+        assert day.get(2400)[1] == 19 + 48;
+        assert day.get(1400)[0] == 500 && day.get(1400)[1] == 61;
+
+        // The first hour of day 11 is cut by the range and scanned, the rest come from the rollups
+        TreeMap<Long, HashMap<Integer, long[]>> hourly = this.store.revenue(DAY * 11 + 150, DAY * 13, PartitionSize.HOUR);
+        assert hourly
+                .keySet()
+                .equals(Set.of(DAY * 11, DAY * 11 + 3600, DAY * 12));
+        assert hourly.get(DAY * 11).get(2400)[0] == 250;
+        assert hourly.get(DAY * 11 + 3600).get(1400)[0] == 500;
+        assert hourly.get(DAY * 12).get(2400)[1] == 193;
+    }
+
+}
@@ -0,0 +1,61 @@
+package backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+class SequencedBufferTest {
+
+    @Test
+    void drainsUpToFirstGap () {
+        SequencedBuffer<String> buffer = new SequencedBuffer<>(8, 1);
+        List<String> drained = new ArrayList<>();
+        assert buffer.offer(2, "b");
+        assert !buffer.hasNext();
+        assert buffer.drain(drained::add) == 0;
+
+        assert buffer.offer(1, "a");
+        assert buffer.offer(4, "d");
+        assert buffer.drain(drained::add) == 2;
+        assert drained.equals(List.of("a", "b"));
+
+        assert buffer.offer(3, "c");
+        assert buffer.drain(drained::add) == 2;
+        assert drained.equals(List.of("a", "b", "c", "d"));
+    }
+
+    @Test
+    void rejectsWhenFull () {
+        SequencedBuffer<String> buffer = new SequencedBuffer<>(4, 1);
+        assert buffer.capacity() == 4;
+        assert buffer.offer(4, "d");
+        assert !buffer.offer(5, "e");
+        assert buffer.backlog(4) == 4;
+    }
+
+    @Test
+    void concurrentOffers () throws InterruptedException {
+        SequencedBuffer<Long> buffer = new SequencedBuffer<>(1 << 16, 1);
+        AtomicLong sequence = new AtomicLong(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    long next = sequence.getAndIncrement();
+                    buffer.offer(next, next);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        long[] expected = { 1 };
+        int count = buffer.drain((Long value) -> {
+            assert value == expected[0]++;
+        });
+        assert count == 40000;
+    }
+
+}
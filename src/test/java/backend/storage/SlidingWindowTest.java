@@ -0,0 +1,43 @@
+package backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+class SlidingWindowTest {
+
+    @Test
+    void countsWithinWindow () {
+        SlidingWindow window = new SlidingWindow(60);
+        assert Arrays.equals(window.totals(1000, 60), new long[3]);
+
+        window.record(1000, 3, 500);
+        window.record(1000, 1, 100);
+        window.record(1010, 2, 250);
+        assert Arrays.equals(window.totals(1010, 60), new long[] { 3, 6, 850 });
+        assert Arrays.equals(window.totals(1010, 10), new long[] { 1, 2, 250 });
+        assert Arrays.equals(window.totals(1059, 60), new long[] { 3, 6, 850 });
+        assert Arrays.equals(window.totals(1060, 60), new long[] { 1, 2, 250 });
+        assert Arrays.equals(window.totals(1070, 60), new long[3]);
+    }
+
+    @Test
+    void lateAndIdle () {
+        SlidingWindow window = new SlidingWindow(10);
+        window.record(100, 1, 10);
+        window.record(105, 1, 10);
+        // Recorded late, counted in the second it belongs to
+        window.record(103, 1, 10);
+        assert window.totals(105, 3)[0] == 2;
+        assert window.totals(105, 10)[0] == 3;
+        // Older than the buffer
+        window.record(50, 1, 10);
+        assert window.totals(105, 10)[0] == 3;
+
+        // Idle for longer than the buffer
+        assert window.totals(500, 10)[0] == 0;
+        window.record(501, 4, 40);
+        assert Arrays.equals(window.totals(501, 10), new long[] { 1, 4, 40 });
+    }
+
+}
@@ -0,0 +1,86 @@
+package backend.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Stream;
+
+class SnapshotsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void emptyDirectory () throws IOException {
+        Snapshots snapshots = new Snapshots(this.directory.resolve("missing"), 1, 2);
+        assert snapshots.loadLatest(in -> {
+            throw new AssertionError("Nothing to read");
+        }) == 0;
+    }
+
+    @Test
+    void storeRoundTrip () throws IOException {
+        SalesStore store = new SalesStore(PartitionSize.HOUR);
+        for (int i = 0; i < 500; i++) {
+            store.append(i * 60L, i + 1, 1000 + i % 7, 250, 2400, i % 3 == 0 ? SalesStore.NO_CUSTOMER : i, 1, Demographics.NONE);
+            if (i % 3 != 0) store.countCustomer(i * 60L, i, List.of("keyword " + i % 2));
+        }
+
+        Snapshots snapshots = new Snapshots(this.directory, 1, 2);
+        snapshots.write(500, store::writeTo);
+
+        SalesStore restored = new SalesStore(PartitionSize.HOUR);
+        assert snapshots.loadLatest(restored::readFrom) == 500;
+        assert restored
+                .partitions()
+                .size() == store
+                .partitions()
+                .size();
+        LinkedHashMap<Integer, Long> expected = store.top(0, 30000, 3);
+        assert restored
+                .top(0, 30000, 3)
+                .equals(expected);
+        assert restored.distinctCustomers(0, 30000, "keyword 1") == store.distinctCustomers(0, 30000, "keyword 1");
+    }
+
+    @Test
+    void keepsLatestAndSkipsOtherFormats () throws IOException {
+        Snapshots snapshots = new Snapshots(this.directory, 1, 2);
+        for (long sequence = 1; sequence <= 4; sequence++) {
+            long value = sequence;
+            snapshots.write(sequence, out -> out.writeLong(value));
+        }
+        try (Stream<Path> files = Files.list(this.directory)) {
+            assert files.count() == 2;
+        }
+        long[] read = new long[1];
+        assert snapshots.loadLatest(in -> read[0] = in.getLong()) == 4;
+        assert read[0] == 4;
+
+        Snapshots upgraded = new Snapshots(this.directory, 2, 2);
+        assert upgraded.loadLatest(in -> {
+            throw new AssertionError("Other format");
+        }) == 0;
+    }
+
+    @Test
+    void fallsBackToOlderSnapshot () throws IOException {
+        Snapshots snapshots = new Snapshots(this.directory, 1, 2);
+        snapshots.write(1, out -> out.writeLong(1));
+        snapshots.write(2, out -> out.writeLong(2));
+        // Cut off in the middle of the contents
+        Path latest = this.directory.resolve(String.format("%020d.snapshot", 2));
+        Files.write(latest, Arrays.copyOf(Files.readAllBytes(latest), 20));
+
+        long[] read = new long[1];
+        assert snapshots.loadLatest(in -> read[0] = in.getLong()) == 1;
+        assert read[0] == 1;
+    }
+
+}
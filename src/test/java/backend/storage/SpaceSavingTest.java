@@ -0,0 +1,71 @@
+package backend.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Random;
+
+class SpaceSavingTest {
+
+    @Test
+    void exactWhileNotFull () {
+        SpaceSaving sketch = new SpaceSaving(4);
+        sketch.add(1);
+        sketch.add(2);
+        sketch.add(1);
+        assert sketch.isExact();
+        assert sketch.size() == 2;
+        assert sketch.count(1) == 2;
+        assert sketch.count(2) == 1;
+        assert sketch.count(3) == 0;
+    }
+
+    @Test
+    void keepsHeavyHitters () {
+        SpaceSaving sketch = new SpaceSaving(8);
+        // One frequent barcode among a long tail of rare ones
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(42);
+            sketch.add(1000 + i);
+        }
+        assert !sketch.isExact();
+        assert sketch.size() == 8;
+        assert sketch.count(42) >= 1000;
+    }
+
+    @Test
+    void matchesExactCountsAfterEvictions () throws IOException {
+        SpaceSaving sketch = new SpaceSaving(16);
+        HashMap<Integer, Long> exact = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            // Skewed barcodes, with colliding multiples of the table size
+            int key = (int) Math.abs(random.nextGaussian() * 20) * 64;
+            sketch.add(key);
+            exact.merge(key, 1L, Long::sum);
+        }
+        assert !sketch.isExact();
+        long total = 0;
+        for (int i = 0; i < sketch.size(); i++) {
+            int key = sketch.key(i);
+            assert sketch.count(key) >= exact.get(key);
+            total += sketch.count(key);
+        }
+        assert total == 20000;
+        for (Integer key : exact.keySet())
+            if (exact.get(key) > 20000 / 16) assert sketch.count(key) >= exact.get(key);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.writeTo(new DataOutputStream(bytes));
+        SpaceSaving read = new SpaceSaving(16);
+        read.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+        assert !read.isExact();
+        assert read.size() == sketch.size();
+        for (int i = 0; i < sketch.size(); i++) assert read.count(sketch.key(i)) == sketch.count(sketch.key(i));
+    }
+
+}
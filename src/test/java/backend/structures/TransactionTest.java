@@ -11,6 +11,8 @@ import sharedResources.productCatalog.ProductCatalog;
 import sharedResources.structures.Customer;
 import sharedResources.structures.CustomerRegister;
 
+import java.io.IOException;
+
 class TransactionTest {
 
     private Product[] products;
@@ -74,4 +76,26 @@ class TransactionTest {
         assert this.transaction.getTotal() == total;
     }
 
+    @Test
+    void toBytesAndFromBytes () throws IOException {
+        this.transaction
+                .setCustomer(this.bonusCustomer)
+                .setLane(3)
+                .setSequence(42);
+        Transaction restored = Transaction.fromBytes(this.transaction.toBytes());
+
+        assert restored.getTotal() == this.transaction.getTotal();
+        assert restored.getLane() == 3;
+        assert restored.getCustomerNo() == this.bonusCustomer.getId();
+        assert restored.getDemographic() == this.transaction.getDemographic();
+        assert restored.getLines().length == this.products.length;
+        for (int i = 0; i < this.products.length; i++) {
+            SaleLine line = restored.getLines()[i];
+            assert line.getBarCode() == this.products[i].getBarCode();
+            assert line.getPrice() == Math.round(this.products[i].getDiscountedPrice(this.bonusCustomer) * 100);
+            assert line.getVatRate() == Math.round(this.products[i].getVat() * 100);
+            assert line.getProduct() == this.products[i];
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+package sharedResources.productCatalog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares barcode lookups in the IntProductMap backing the products with the HashMap it replaced.
+ * Run with the main method, or through the JMH runner on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntProductMapBenchmark {
+
+    // Number of barcodes looked up per invocation
+    private static final int LOOKUPS = 1024;
+
+    @Param({ "1000", "100000" })
+    public int products;
+
+    private HashMap<Integer, Product> hashMap;
+    private IntProductMap intMap;
+    // Barcodes to look up, half of them in the catalog
+    private int[] barcodes;
+
+    @Setup
+    public void setUp () {
+        Random random = new Random(42);
+        this.hashMap = new HashMap<>();
+        this.intMap = new IntProductMap();
+        int[] known = new int[this.products];
+        for (int i = 0; i < this.products; i++) {
+            known[i] = random.nextInt(Integer.MAX_VALUE);
+            Product product = new Product(i, known[i], "Product " + i, 14, "Benchmark");
+            this.hashMap.put(known[i], product);
+            this.intMap.put(known[i], product);
+        }
+        this.barcodes = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+            this.barcodes[i] = i % 2 == 0 ? known[random.nextInt(known.length)] : random.nextInt(Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public void hashMapGet (Blackhole blackhole) {
+        for (int barcode : this.barcodes) blackhole.consume(this.hashMap.get(barcode));
+    }
+
+    @Benchmark
+    public void intMapGet (Blackhole blackhole) {
+        for (int barcode : this.barcodes) blackhole.consume(this.intMap.get(barcode));
+    }
+
+    @Benchmark
+    public void hashMapContains (Blackhole blackhole) {
+        for (int barcode : this.barcodes) blackhole.consume(this.hashMap.containsKey(barcode));
+    }
+
+    @Benchmark
+    public void intMapContains (Blackhole blackhole) {
+        for (int barcode : this.barcodes) blackhole.consume(this.intMap.contains(barcode));
+    }
+
+    public static void main (String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(IntProductMapBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Tests for the barcode map backing the products
+ */
+package sharedResources.productCatalog;
+
+import org.junit.jupiter.api.Test;
+
+public class IntProductMapTest {
+
+    @Test
+    public void putGetAndGrow () {
+        IntProductMap map = new IntProductMap(2);
+        for (int i = 0; i < 10000; i++) map.put(i * 7, new Product(i, i * 7, "Product " + i, 14, "Test"));
+        map.put(-5, new Product(-1, -5, "Negative", 14, "Test"));
+        assert map.size() == 10001;
+        assert map
+                .get(700)
+                .getName()
+                .equals("Product 100");
+        assert map
+                .get(-5)
+                .getName()
+                .equals("Negative");
+        assert map.get(701) == null;
+        assert map.contains(0);
+        assert !map.contains(1);
+        assert map
+                .values()
+                .size() == 10001;
+        assert map
+                .toHashMap()
+                .size() == 10001;
+    }
+
+    @Test
+    public void putReplaces () {
+        IntProductMap map = new IntProductMap();
+        Product milk = new Product(1, 100, "Milk", 14, "Dairy");
+        assert map.put(100, milk) == null;
+        assert map.put(100, new Product(1, 100, "Oat Milk", 14, "Vegan")) == milk;
+        assert map.size() == 1;
+        assert map
+                .get(100)
+                .getName()
+                .equals("Oat Milk");
+    }
+
+}
@@ -103,4 +103,21 @@ public class ProductCatalogTest {
         assert this.productCatalog.getAllProducts().size() == originalSize + 3;
     }
 
+
+    /**
+     * Changing a price publishes a new version and leaves products already read unchanged
+     */
+    @Test
+    public void setPriceKeepsReadProducts() {
+        Product p = new Product(99, 1234, "Milk", 20F, "Milch", 1.5F);
+        this.productCatalog.addProduct(p);
+        int version = this.productCatalog.getVersion();
+
+        assert this.productCatalog.setPrice(1234, 2F);
+        assert this.productCatalog.getVersion() > version;
+        assert p.getPrice() == 1.5F;
+        assert this.productCatalog.findProductByBarCode(1234).getPrice() == 2F;
+        assert !this.productCatalog.setPrice(4321, 2F);
+    }
+
 }
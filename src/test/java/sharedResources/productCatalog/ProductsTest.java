@@ -0,0 +1,87 @@
+/**
+ * Tests for the keyword index of the products
+ */
+package sharedResources.productCatalog;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+public class ProductsTest {
+
+    private Products products;
+
+    @BeforeEach
+    public void setUp () {
+        this.products = new Products();
+        this.products.addProduct(new Product(1, 100, "Milk", 14, "Dairy"));
+        this.products.addProduct(new Product(2, 200, "Cheese", 14, "dairy"));
+        this.products.addProduct(new Product(3, 300, "Beer", 24, "Alcoholic Drink"));
+    }
+
+    @Test
+    public void findByKeywordIgnoresCase () {
+        assert this.products
+                .findByKeyword("dairy")
+                .keySet()
+                .equals(Set.of(100, 200));
+        assert this.products.findProductsKeyword("DAIRY").length == 2;
+        assert this.products.findProductsKeyword("bread") == null;
+        assert this.products
+                .findByKeyword("*")
+                .size() == 3;
+    }
+
+    @Test
+    public void addProductMovesChangedKeyword () {
+        this.products.addProduct(new Product(3, 300, "Beer", 24, "Dairy"));
+        assert this.products.findProductsKeyword("alcoholic drink") == null;
+        assert this.products.findProductsKeyword("dairy").length == 3;
+        assert this.products
+                .findByKeyword("dairy")
+                .get(300)
+                .getName()
+                .equals("Beer");
+    }
+
+    @Test
+    public void suggestByNameWordOrKeyword () {
+        this.products.addProduct(new Product(4, 400, "Oat Milk", 14, "Vegan"));
+        Product[] milk = this.products.suggest("mil", 10);
+        assert milk.length == 2;
+        assert milk[0].getBarCode() == 100;
+        assert milk[1].getBarCode() == 400;
+
+        assert this.products.suggest("DAI", 10).length == 2;
+        assert this.products.suggest("dai", 1).length == 1;
+        assert this.products.suggest("wine", 10).length == 0;
+    }
+
+    @Test
+    public void findProductNameMatchesWholeName () {
+        this.products.addProduct(new Product(4, 400, "Oat Milk", 14, "Vegan"));
+        assert this.products
+                .findProductName("oat milk")
+                .getBarCode() == 400;
+        assert this.products
+                .findProductName("Milk")
+                .getBarCode() == 100;
+        // Only a word of the name or a keyword
+        assert this.products.findProductName("dairy") == null;
+    }
+
+    @Test
+    public void searchToleratesTypos () {
+        this.products.addProduct(new Product(4, 400, "Oat Milk", 14, "Vegan"));
+        Product[] milk = this.products.search("mikl", 10);
+        assert milk.length == 2;
+        // The whole name matches better than a word of a longer name
+        assert this.products.search("milk", 10)[0].getBarCode() == 100;
+        assert this.products.search("oat mlik", 10)[0].getBarCode() == 400;
+        assert this.products.search("chese", 10)[0].getBarCode() == 200;
+        assert this.products.search("alcoholic drnk", 1)[0].getBarCode() == 300;
+        assert this.products.search("xyz", 10).length == 0;
+    }
+
+}
@@ -0,0 +1,43 @@
+package sharedResources.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+class IntIndexTest {
+
+    @Test
+    void putAndGrow () {
+        IntIndex index = new IntIndex(2);
+        for (int i = 0; i < 1000; i++) assert index.putIfAbsent(i * 16, i) == -1;
+        assert index.putIfAbsent(16, 5) == 1;
+        index.put(16, 5);
+        assert index.size() == 1000;
+        assert index.get(16) == 5;
+        assert index.get(999 * 16) == 999;
+        assert index.get(-16) == -1;
+    }
+
+    @Test
+    void removeKeepsProbedKeys () {
+        // Compared against a HashMap, with a small table so removed keys are often in the middle of a probe
+        IntIndex index = new IntIndex(64);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(200);
+            if (random.nextBoolean()) {
+                index.put(key, i);
+                expected.put(key, i);
+            } else {
+                Integer removed = expected.remove(key);
+                assert index.remove(key) == (removed == null ? -1 : removed);
+            }
+            assert index.size() == expected.size();
+        }
+        for (int key = 0; key < 200; key++)
+            assert index.get(key) == expected.getOrDefault(key, -1);
+    }
+
+}